@@ -0,0 +1,62 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A CharSequence view of ASCII text in a region of a byte buffer. The view can be moved
+ * to another region, so text can be parsed straight from a buffer without creating strings.
+ */
+public class AsciiSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+
+    /**
+     * Constructs an AsciiSequence over a region of a buffer.
+     *
+     * @param buffer    The buffer.
+     * @param start     The index of the first byte.
+     * @param end       The index after the last byte.
+     */
+    public AsciiSequence(ByteBuffer buffer, int start, int end) {
+        set(buffer, start, end);
+    }
+
+    /**
+     * Moves the view to a region of a buffer.
+     *
+     * @param buffer    The buffer.
+     * @param start     The index of the first byte.
+     * @param end       The index after the last byte.
+     * @return this sequence.
+     */
+    public AsciiSequence set(ByteBuffer buffer, int start, int end) {
+        if (start < 0 || end < start || end > buffer.limit()) throw new IndexOutOfBoundsException(start + ", " + end);
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException(index);
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to < from || to > end - start) throw new IndexOutOfBoundsException(from + ", " + to);
+        return new AsciiSequence(buffer, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) sb.append((char) (buffer.get(i) & 0xFF));
+        return sb.toString();
+    }
+}
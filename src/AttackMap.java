@@ -0,0 +1,224 @@
+import java.util.Arrays;
+
+/**
+ * The squares each player attacks in a position, and by how many pieces. A board computes
+ * the map of a position once, when it is first needed (see Board.getAttackMap), and it is
+ * then shared by legality checks, castling and the evaluation, so none of them has to
+ * generate moves or look for attackers on its own. Squares are numbered 8 * row + column.
+ */
+public class AttackMap {
+    private static final int[] knightRowSteps = {1, 1, 2, 2, -1, -1, -2, -2};
+    private static final int[] knightColSteps = {2, -2, 1, -1, 2, -2, 1, -1};
+    // Straight directions followed by diagonal ones.
+    private static final int[] kingRowSteps = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] kingColSteps = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    // Number of pieces of each color attacking each square.
+    private final int[][] attackers;
+    // Bitsets of the squares attacked by each color's pawns, by its rooks and queens along
+    // straight lines, and by its bishops and queens along diagonals.
+    private final long[] pawnAttacks;
+    private final long[] straightAttacks;
+    private final long[] diagonalAttacks;
+    // Bitsets of the squares occupied by each color.
+    private final long[] occupied;
+    // Number of squares attacked by each color's pieces of each type that neither hold a
+    // piece of the same color nor are attacked by an opponent pawn.
+    private final int[][] mobility;
+    private final int[] kingSquare;
+    // Squares of the pieces other than pawns, while computing.
+    private final int[] pieces;
+    private boolean valid;
+
+    /**
+     * Constructs an empty AttackMap, to be computed for a position.
+     */
+    public AttackMap() {
+        attackers = new int[2][64];
+        pawnAttacks = new long[2];
+        straightAttacks = new long[2];
+        diagonalAttacks = new long[2];
+        occupied = new long[2];
+        mobility = new int[2][Piece.Type.values().length];
+        kingSquare = new int[2];
+        pieces = new int[64];
+    }
+
+    /**
+     * Computes the map of the current position of a board.
+     *
+     * @param board The board.
+     */
+    void compute(Board board) {
+        for (int i = 0; i < 2; i++) {
+            Arrays.fill(attackers[i], 0);
+            Arrays.fill(mobility[i], 0);
+            pawnAttacks[i] = 0;
+            straightAttacks[i] = 0;
+            diagonalAttacks[i] = 0;
+            occupied[i] = 0;
+            kingSquare[i] = -1;
+        }
+
+        // pawns first, since the mobility of the other pieces depends on their attacks
+        int n = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            Piece p = board.getPiece(sq >> 3, sq & 7);
+            if (p == Piece.EMPTY) continue;
+            int color = p.getColor().ordinal();
+            occupied[color] |= 1L << sq;
+            if (p.getType() == Piece.Type.PAWN) addPawnAttacks(sq, p.getColor());
+            else pieces[n++] = sq;
+        }
+        for (int i = 0; i < n; i++) {
+            int sq = pieces[i];
+            Piece p = board.getPiece(sq >> 3, sq & 7);
+            int color = p.getColor().ordinal();
+            switch (p.getType()) {
+                case KNIGHT:
+                    addStepperAttacks(sq, color, Piece.Type.KNIGHT, knightRowSteps, knightColSteps);
+                    break;
+                case BISHOP:
+                    addSliderAttacks(sq, color, Piece.Type.BISHOP, 4, 8);
+                    break;
+                case ROOK:
+                    addSliderAttacks(sq, color, Piece.Type.ROOK, 0, 4);
+                    break;
+                case QUEEN:
+                    addSliderAttacks(sq, color, Piece.Type.QUEEN, 0, 8);
+                    break;
+                case KING:
+                    kingSquare[color] = sq;
+                    addStepperAttacks(sq, color, Piece.Type.KING, kingRowSteps, kingColSteps);
+                    break;
+                default:
+                    throw new IllegalArgumentException(p + " is not a valid piece.");
+            }
+        }
+        valid = true;
+    }
+
+    private void addPawnAttacks(int sq, Color color) {
+        int r = (sq >> 3) + (color == Color.WHITE ? -1 : 1);
+        int c = sq & 7;
+        if (r < 0 || r > 7) return;
+        int i = color.ordinal();
+        if (c > 0) {
+            attackers[i][8 * r + c - 1]++;
+            pawnAttacks[i] |= 1L << (8 * r + c - 1);
+        }
+        if (c < 7) {
+            attackers[i][8 * r + c + 1]++;
+            pawnAttacks[i] |= 1L << (8 * r + c + 1);
+        }
+    }
+
+    private void addStepperAttacks(int sq, int color, Piece.Type type, int[] rowSteps, int[] colSteps) {
+        int r = sq >> 3, c = sq & 7;
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = r + rowSteps[i];
+            int col = c + colSteps[i];
+            if (row >= 0 && row <= 7 && col >= 0 && col <= 7) attack(8 * row + col, color, type);
+        }
+    }
+
+    /**
+     * Adds the attacks along the directions from first (inclusive) to last (exclusive).
+     */
+    private void addSliderAttacks(int sq, int color, Piece.Type type, int first, int last) {
+        long all = occupied[0] | occupied[1];
+        for (int i = first; i < last; i++) {
+            int rowDir = kingRowSteps[i], colDir = kingColSteps[i];
+            for (int j = (sq >> 3) + rowDir, k = (sq & 7) + colDir; j >= 0 && j <= 7 && k >= 0 && k <= 7;
+                 j += rowDir, k += colDir) {
+                int target = 8 * j + k;
+                attack(target, color, type);
+                if (i < 4) straightAttacks[color] |= 1L << target;
+                else diagonalAttacks[color] |= 1L << target;
+                if ((all & 1L << target) != 0) break;
+            }
+        }
+    }
+
+    private void attack(int sq, int color, Piece.Type type) {
+        attackers[color][sq]++;
+        if (((occupied[color] | pawnAttacks[1 - color]) & 1L << sq) == 0) mobility[color][type.ordinal()]++;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Returns the number of pieces of a given color attacking a given square. Pieces behind
+     * another attacker on the same line aren't counted.
+     *
+     * @param r     The row of the square.
+     * @param c     The column of the square.
+     * @param color The color of the attackers.
+     * @return the number of attackers.
+     */
+    public int attackers(int r, int c, Color color) {
+        return attackers[color.ordinal()][8 * r + c];
+    }
+
+    /**
+     * Returns whether a given square is attacked by a given player.
+     *
+     * @param r     The row of the square.
+     * @param c     The column of the square.
+     * @param color The color of the attacking player.
+     * @return whether the square is attacked.
+     */
+    public boolean isAttacked(int r, int c, Color color) {
+        return attackers[color.ordinal()][8 * r + c] > 0;
+    }
+
+    /**
+     * Returns the square of a player's king.
+     *
+     * @param color The color of the king.
+     * @return the square as 8 * row + column, or -1 if there is no king.
+     */
+    public int getKingSquare(Color color) {
+        return kingSquare[color.ordinal()];
+    }
+
+    /**
+     * Returns the number of squares attacked by a player's pieces of a given type that
+     * neither hold one of the player's pieces nor are attacked by an opponent pawn.
+     *
+     * @param color The color of the player.
+     * @param type  The piece type.
+     * @return the number of squares, counted once for each piece attacking them.
+     */
+    public int getMobility(Color color, Piece.Type type) {
+        return mobility[color.ordinal()][type.ordinal()];
+    }
+
+    /**
+     * Returns whether moving a piece of a given player away from a given square may expose
+     * the player's king to an opponent rook, bishop or queen. This is the case if the square
+     * is on a line with the king and attacked along such a line by one of these pieces. It
+     * errs on the safe side: the attack may come along another line, or another piece may
+     * stand between the square and the king.
+     *
+     * @param r     The row of the square.
+     * @param c     The column of the square.
+     * @param color The color of the player.
+     * @return whether the piece may be pinned.
+     */
+    public boolean mayBePinned(int r, int c, Color color) {
+        int king = kingSquare[color.ordinal()];
+        if (king < 0) return true;
+        int dr = r - (king >> 3), dc = c - (king & 7);
+        int opponent = 1 - color.ordinal();
+        if (dr == 0 || dc == 0) return (straightAttacks[opponent] & 1L << (8 * r + c)) != 0;
+        if (Math.abs(dr) == Math.abs(dc)) return (diagonalAttacks[opponent] & 1L << (8 * r + c)) != 0;
+        return false;
+    }
+}
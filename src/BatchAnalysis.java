@@ -0,0 +1,228 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analyzes a stream of positions, one FEN per line, with a pool of long-lived search
+ * workers. Results are written as soon as they complete, tagged with the index of the
+ * position in the input.
+ */
+public class BatchAnalysis {
+    private static final String WARM_UP_FEN = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+    private static final Job POISON = new Job(-1, null);
+
+    private final int threads;
+    private final int depth;
+    private final long millis;
+    private final boolean json;
+    private final AtomicLong analyzed;
+
+    /**
+     * Constructs a BatchAnalysis with a per-position budget.
+     *
+     * @param threads   The number of workers.
+     * @param depth     The maximum search depth of a position.
+     * @param millis    The time budget of a position in milliseconds, or 0 for no limit.
+     * @param json      Whether to write results as JSON lines instead of CSV.
+     */
+    public BatchAnalysis(int threads, int depth, long millis, boolean json) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1");
+        this.threads = threads;
+        this.depth = depth;
+        this.millis = millis;
+        this.json = json;
+        analyzed = new AtomicLong();
+    }
+
+    /**
+     * Analyzes every position read from the input until it ends, or until a worker fails.
+     *
+     * @param in  The input, one FEN per line.
+     * @param out Where the results are written.
+     * @return the number of positions analyzed.
+     * @throws IOException if reading or writing fails.
+     * @throws IllegalStateException if a worker fails for another reason.
+     */
+    public long run(BufferedReader in, Writer out) throws IOException {
+        BlockingQueue<Job> queue = new ArrayBlockingQueue<>(4 * threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> work(queue, out, failure), "analysis-" + i);
+            workers[i].start();
+        }
+        if (!json) {
+            synchronized (out) {
+                out.write("index,fen,move,score,depth,nodes,ms\n");
+            }
+        }
+
+        boolean complete = false;
+        try {
+            String line;
+            long index = 0;
+            while (failure.get() == null && (line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (!put(queue, new Job(index++, line), failure)) break;
+            }
+            for (int i = 0; i < threads && failure.get() == null; i++) put(queue, POISON, failure);
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Analysis interrupted");
+        } finally {
+            if (!complete || failure.get() != null) {
+                // workers stop at their next job instead of emptying the queue
+                queue.clear();
+                for (Thread w : workers) w.interrupt();
+            }
+            boolean interrupted = false;
+            for (Thread w : workers) {
+                while (w.isAlive()) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            out.flush();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) throw (IOException) t;
+        if (t != null) throw new IllegalStateException("Analysis worker failed: " + t, t);
+        return analyzed.get();
+    }
+
+    /**
+     * Queues a job, waiting for room as long as no worker has failed.
+     *
+     * @return whether the job was queued.
+     */
+    private static boolean put(BlockingQueue<Job> queue, Job job, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (!queue.offer(job, 100, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs a worker until it takes the poison job or is interrupted. A worker keeps one
+     * board and one search, with its transposition table, for its whole life, and parses
+     * every position into that board. It first searches a fixed position so that the hot
+     * code is compiled before the real positions arrive. A bad position only gives an error
+     * record; if the worker itself fails, eg. because writing fails, the failure is recorded
+     * so the reader stops feeding it.
+     */
+    private void work(BlockingQueue<Job> queue, Writer out, AtomicReference<Throwable> failure) {
+        try {
+            Board board = new Board();
+            Search search = new Search(board);
+            FENParser.parse(WARM_UP_FEN, board);
+            search.findBestMove(4);
+            search.setTimeLimit(millis);
+
+            while (true) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (job == POISON) return;
+                String result = analyze(job, board, search);
+                synchronized (out) {
+                    out.write(result);
+                    out.flush();
+                }
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+    }
+
+    /**
+     * Analyzes one position. A position that can't be parsed, or that the engine can't
+     * search, eg. because a king is missing, gives an error record instead of a result.
+     */
+    private String analyze(Job job, Board board, Search search) {
+        Events.BatchJob event = Events.isRecorderStarted() ? new Events.BatchJob() : null;
+        if (event != null) event.begin();
+        Move m;
+        long ms;
+        try {
+            FENParser.parse(job.fen, board);
+            // a fresh table, so the result doesn't depend on the positions analyzed before
+            search.getTranspositionTable().clear();
+            long start = System.nanoTime();
+            m = search.findBestMove(depth);
+            ms = (System.nanoTime() - start) / 1000000;
+        } catch (FENParser.FENParseException | RuntimeException e) {
+            return json
+                    ? "{\"index\":" + job.index + ",\"fen\":" + quote(job.fen)
+                        + ",\"error\":" + quote(String.valueOf(e.getMessage())) + "}\n"
+                    : job.index + "," + csv(job.fen) + ",error,,,,\n";
+        }
+        long completed = analyzed.incrementAndGet();
+        if (event != null && event.shouldCommit()) {
+            event.kind = "analysis";
+            event.index = job.index;
+            event.result = String.valueOf(m);
+            event.completed = completed;
+            event.commit();
+        }
+
+        return json
+                ? "{\"index\":" + job.index + ",\"fen\":" + quote(job.fen) + ",\"move\":\"" + m + "\",\"score\":" + search.getScore()
+                    + ",\"depth\":" + search.getDepth() + ",\"nodes\":" + search.getNodes() + ",\"ms\":" + ms + "}\n"
+                : job.index + "," + csv(job.fen) + "," + m + "," + search.getScore() + "," + search.getDepth() + ","
+                    + search.getNodes() + "," + ms + "\n";
+    }
+
+    /**
+     * Returns a string as a JSON string literal.
+     */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c == '\n') sb.append("\\n");
+            else if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Returns a string as a CSV field, quoted if it contains a comma or a quote.
+     */
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * A position waiting to be analyzed.
+     */
+    private static class Job {
+        private final long index;
+        private final String fen;
+
+        public Job(long index, String fen) {
+            this.index = index;
+            this.fen = fen;
+        }
+    }
+}
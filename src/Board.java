@@ -1,9 +1,14 @@
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * Represents a chess board.
  */
 public class Board {
+    // Size in bytes of the binary encoding of a position.
+    public static final int ENCODED_SIZE = 32;
+    private static final Piece.Type[] TYPES = Piece.Type.values();
+    private static final Color[] COLORS = Color.values();
     private static final Piece[][] DEFAULT_POSITION = parseSetup(new char[][]{
             {'r', 'n', 'b', 'q', 'k', 'b', 'n', 'r'},
             {'p', 'p', 'p', 'p', 'p', 'p', 'p', 'p'},
@@ -19,40 +24,58 @@ public class Board {
     private final Piece[][] position;
     private final MoveGenerator moveGen;
     private final Deque<Move> moveHistory;
-    // Hashes of all previous positions.
-    private final Set<Integer> previousPositions;
+    // Zobrist hashes of the positions reached so far, indexed by ply.
+    private long[] hashHistory;
+    // En passant columns of the positions reached so far, indexed by ply.
+    private int[] enPassantHistory;
+    private int ply;
+    private long hash;
+    // Number of pieces on the board, kings included.
+    private int pieceCount;
     private CastlingRights castlingRights;
     private Color toMove;
     private int fiftyMoveClock;
     private int moveNumber;
+    // Column of a pawn that can be captured en passant, -1 if there is none.
+    private int enPassantColumn;
+    // Times move generation and legality checks if set.
+    private Telemetry telemetry;
+    // Attack maps of the positions reached so far, indexed by ply, computed when first needed.
+    private AttackMap[] attackMaps;
 
     /**
      * Constructs a Board object of the normal chess stating position.
      */
     public Board() {
-        this(DEFAULT_POSITION, Color.WHITE, null, new CastlingRights(), 0, 1);
+        this(copyPosition(DEFAULT_POSITION), Color.WHITE, -1, new CastlingRights(), 0, 1);
     }
 
     /**
      * Constructs a Board object from a given Piece array position,
-     * player to move, optional last move and given castling rights.
+     * player to move, en passant column and given castling rights.
      *
      * @param position          The position.
      * @param toMove            The player to move.
-     * @param lastMove          Optional last move, can be null if no move is provided.
+     * @param enPassantColumn   The column of the en passant target square, or -1 if there is none.
      * @param castlingRights    The castling rights.
      */
-    public Board(Piece[][] position, Color toMove, Move lastMove, CastlingRights castlingRights, int fiftyMoveClock, int moveNumber) {
+    public Board(Piece[][] position, Color toMove, int enPassantColumn, CastlingRights castlingRights, int fiftyMoveClock, int moveNumber) {
         this.position = position;
         moveGen = new MoveGenerator(this);
         moveHistory = new ArrayDeque<Move>();
-        previousPositions = new HashSet<>();
-        previousPositions.add(Arrays.deepHashCode(position));
         this.toMove = toMove;
-        if (lastMove != null) moveHistory.push(lastMove);
         this.castlingRights = castlingRights;
         this.fiftyMoveClock = fiftyMoveClock;
         this.moveNumber = moveNumber;
+        this.enPassantColumn = enPassantCapturable(enPassantColumn, toMove) ? enPassantColumn : -1;
+        hash = computeHash();
+        pieceCount = countPieces();
+        hashHistory = new long[256];
+        enPassantHistory = new int[256];
+        attackMaps = new AttackMap[256];
+        hashHistory[0] = hash;
+        enPassantHistory[0] = this.enPassantColumn;
+        ply = 0;
     }
 
     /**
@@ -69,6 +92,12 @@ public class Board {
         return  r;
     }
 
+    private static Piece[][] copyPosition(Piece[][] position) {
+        Piece[][] copy = new Piece[8][];
+        for (int i = 0; i < 8; i++) copy[i] = position[i].clone();
+        return copy;
+    }
+
     /**
      * Converts a 2d array of chars to a 2d array of Piece-objects.
      *
@@ -85,6 +114,49 @@ public class Board {
         return pieces;
     }
 
+    /**
+     * Places a piece on a square without updating the rest of the board state.
+     * Used together with reset to set up a position in place.
+     *
+     * @param r The row of the square.
+     * @param c The column of the square.
+     * @param p The piece.
+     */
+    void placePiece(int r, int c, Piece p) {
+        position[r][c] = p;
+    }
+
+    /**
+     * Sets the state of the position placed on the board and forgets the move history,
+     * so the board can be reused for another position without allocating a new one.
+     *
+     * @param toMove            The player to move.
+     * @param wK                Whether white can castle kingside.
+     * @param wQ                Whether white can castle queenside.
+     * @param bK                Whether black can castle kingside.
+     * @param bQ                Whether black can castle queenside.
+     * @param enPassantColumn   The column of the en passant target square, or -1.
+     * @param fiftyMoveClock    The fifty move clock.
+     * @param moveNumber        The move number.
+     */
+    void reset(Color toMove, boolean wK, boolean wQ, boolean bK, boolean bQ, int enPassantColumn,
+               int fiftyMoveClock, int moveNumber) {
+        this.toMove = toMove;
+        castlingRights.set(wK, wQ, bK, bQ);
+        this.fiftyMoveClock = fiftyMoveClock;
+        this.moveNumber = moveNumber;
+        moveHistory.clear();
+        this.enPassantColumn = enPassantCapturable(enPassantColumn, toMove) ? enPassantColumn : -1;
+        hash = computeHash();
+        pieceCount = countPieces();
+        ply = 0;
+        for (AttackMap a : attackMaps) {
+            if (a != null) a.invalidate();
+        }
+        hashHistory[0] = hash;
+        enPassantHistory[0] = this.enPassantColumn;
+    }
+
     /**
      * Get all legal moves in the position.
      *
@@ -94,6 +166,35 @@ public class Board {
         return moveGen.generateMoves();
     }
 
+    /**
+     * Adds all moves in the position to a list without checking whether they leave the king
+     * in check. Each can be checked with isLegal when it is needed.
+     *
+     * @param moves The list of moves to add to.
+     */
+    public void getPseudoLegalMoves(List<Move> moves) {
+        if (telemetry == null) {
+            moveGen.generatePseudoLegalMoves(moves);
+            return;
+        }
+        long start = System.nanoTime();
+        moveGen.generatePseudoLegalMoves(moves);
+        telemetry.add(Telemetry.Phase.MOVEGEN, start);
+    }
+
+    /**
+     * Sets the telemetry that move generation and legality checks on the board are timed by.
+     *
+     * @param telemetry The telemetry, or null to stop timing.
+     */
+    public void setTelemetry(Telemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public Telemetry getTelemetry() {
+        return telemetry;
+    }
+
     public Move getLastMove() {
         return moveHistory.size() == 0 ? null : moveHistory.peek();
     }
@@ -118,21 +219,136 @@ public class Board {
         return fiftyMoveClock;
     }
 
+    public int getMoveNumber() {
+        return moveNumber;
+    }
+
+    /**
+     * Returns the column of the pawn that can be captured en passant. It is only set when
+     * a pawn of the player to move stands next to it, so that equal positions hash equally.
+     *
+     * @return the column of the en passant target, or -1 if there is none.
+     */
+    public int getEnPassantColumn() {
+        return enPassantColumn;
+    }
+
+    /**
+     * Returns whether a pawn that just moved two squares on a given column can be
+     * captured en passant by a pawn of a given player.
+     *
+     * @param c         The column, or -1.
+     * @param capturer  The player that would capture.
+     * @return whether a pawn of the capturing player stands next to the pawn.
+     */
+    private boolean enPassantCapturable(int c, Color capturer) {
+        if (c < 0) return false;
+        int r = getRow(4, capturer);
+        Piece pawn = Piece.of(Piece.Type.PAWN, capturer);
+        if (!position[r][c].equals(Piece.of(Piece.Type.PAWN, capturer.swap()))) return false;
+        return (c > 0 && position[r][c - 1] == pawn) || (c < 7 && position[r][c + 1] == pawn);
+    }
+
+    /**
+     * Returns the Zobrist hash of the current position.
+     *
+     * @return the hash of the position.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Counts the pieces on the board from scratch.
+     */
+    private int countPieces() {
+        int n = 0;
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                if (position[r][c] != Piece.EMPTY) n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of pieces on the board, kings and pawns included.
+     *
+     * @return the number of pieces.
+     */
+    public int getPieceCount() {
+        return pieceCount;
+    }
+
+    /**
+     * Computes the Zobrist hash of the current position from scratch.
+     *
+     * @return the hash of the position.
+     */
+    private long computeHash() {
+        long h = Zobrist.castling(castlingRights);
+        if (toMove == Color.BLACK) h ^= Zobrist.side();
+        if (enPassantColumn >= 0) h ^= Zobrist.enPassant(enPassantColumn);
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                h ^= Zobrist.piece(position[r][c], r, c);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Places a piece on a given square, keeping the hash up to date.
+     *
+     * @param r The row of the square.
+     * @param c The column of the square.
+     * @param p The piece to place.
+     */
+    private void setPiece(int r, int c, Piece p) {
+        hash ^= Zobrist.piece(position[r][c], r, c) ^ Zobrist.piece(p, r, c);
+        position[r][c] = p;
+    }
+
     /**
      * Applies a Move to the board.
      *
      * @param m The move to apply.
      */
     public void makeMove(Move m) {
-        previousPositions.add(Arrays.deepHashCode(position));
+        hash ^= Zobrist.castling(castlingRights);
+        if (enPassantColumn >= 0) {
+            hash ^= Zobrist.enPassant(enPassantColumn);
+            enPassantColumn = -1;
+        }
         if (m instanceof RegularMove) makeMove((RegularMove) m);
         else if (m instanceof CastlingMove) makeMove((CastlingMove) m);
         else if (m instanceof PromotionMove) makeMove((PromotionMove) m);
         else if (m instanceof EnPassantMove) makeMove((EnPassantMove) m);
+        else if (m instanceof NullMove) makeMove((NullMove) m);
         else throw new UnsupportedOperationException("Move type " + m.getClass().getSimpleName() + " not implemented.");
+        if (isCapture(m)) pieceCount--;
         moveHistory.push(m);
         toMove = toMove.swap();
         if (toMove == Color.WHITE) moveNumber++;
+        hash ^= Zobrist.castling(castlingRights) ^ Zobrist.side();
+        if (++ply == hashHistory.length) {
+            hashHistory = Arrays.copyOf(hashHistory, ply * 2);
+            enPassantHistory = Arrays.copyOf(enPassantHistory, ply * 2);
+        }
+        hashHistory[ply] = hash;
+        enPassantHistory[ply] = enPassantColumn;
+        if (ply < attackMaps.length && attackMaps[ply] != null) attackMaps[ply].invalidate();
+    }
+
+    /**
+     * Returns whether an applied move took a piece off the board.
+     *
+     * @param m The move.
+     * @return whether the move was a capture.
+     */
+    private static boolean isCapture(Move m) {
+        return (m instanceof RegularMove || m instanceof PromotionMove || m instanceof EnPassantMove)
+                && m.getDestinationPiece() != Piece.EMPTY;
     }
 
     /**
@@ -142,8 +358,8 @@ public class Board {
      */
     private void makeMove(RegularMove m) {
         m.setDestinationPiece(position[m.getR2()][m.getC2()]);
-        position[m.getR2()][m.getC2()] = position[m.getR1()][m.getC1()];
-        position[m.getR1()][m.getC1()] = Piece.EMPTY;
+        setPiece(m.getR2(), m.getC2(), position[m.getR1()][m.getC1()]);
+        setPiece(m.getR1(), m.getC1(), Piece.EMPTY);
         // remove castling rights if necessary
         if (m.getPiece().getType() == Piece.Type.KING) {
             castlingRights.removeKingside(m.getPiece().getColor());
@@ -160,6 +376,12 @@ public class Board {
         if (m.getPiece().getType() == Piece.Type.PAWN || m.getDestinationPiece() != Piece.EMPTY)
             fiftyMoveClock = 0;
         else fiftyMoveClock ++;
+        // a double pawn step allows en passant if an opponent pawn is next to it
+        if (m.getPiece().getType() == Piece.Type.PAWN && Math.abs(m.getR2() - m.getR1()) == 2
+                && enPassantCapturable(m.getC2(), m.getPiece().getColor().swap())) {
+            enPassantColumn = m.getC2();
+            hash ^= Zobrist.enPassant(enPassantColumn);
+        }
     }
 
     /**
@@ -168,14 +390,14 @@ public class Board {
      * @param m The move to apply.
      */
     private void makeMove(CastlingMove m) {
-        position[m.getR2()][m.getC2()] = position[m.getR1()][m.getC1()];
-        position[m.getR1()][m.getC1()] = Piece.EMPTY;
+        setPiece(m.getR2(), m.getC2(), position[m.getR1()][m.getC1()]);
+        setPiece(m.getR1(), m.getC1(), Piece.EMPTY);
         if (m.getC2() == 6) { // kingside
-            position[m.getR2()][5] = position[m.getR2()][7];
-            position[m.getR2()][7] = Piece.EMPTY;
+            setPiece(m.getR2(), 5, position[m.getR2()][7]);
+            setPiece(m.getR2(), 7, Piece.EMPTY);
         } else {
-            position[m.getR2()][3] = position[m.getR2()][0];
-            position[m.getR2()][0] = Piece.EMPTY;
+            setPiece(m.getR2(), 3, position[m.getR2()][0]);
+            setPiece(m.getR2(), 0, Piece.EMPTY);
         }
         castlingRights.removeKingside(m.getPiece().getColor());
         castlingRights.removeQueenside(m.getPiece().getColor());
@@ -189,8 +411,8 @@ public class Board {
      */
     private void makeMove(PromotionMove m) {
         m.setDestinationPiece(position[m.getR2()][m.getC2()]);
-        position[m.getR2()][m.getC2()] = new Piece(m.getPromotion(), m.getPiece().getColor());
-        position[m.getR1()][m.getC1()] = Piece.EMPTY;
+        setPiece(m.getR2(), m.getC2(), Piece.of(m.getPromotion(), m.getPiece().getColor()));
+        setPiece(m.getR1(), m.getC1(), Piece.EMPTY);
         // remove castling rights if necessary
         if (m.getR2() == Board.getRow(7, m.getPiece().getColor())) {
             if (m.getC2() == 7) castlingRights.removeKingside(m.getPiece().getColor().swap());
@@ -207,18 +429,37 @@ public class Board {
     private void makeMove(EnPassantMove m) {
         int captureRow = Board.getRow(4, m.getPiece().getColor());
         m.setDestinationPiece(position[captureRow][m.getC2()]);
-        position[m.getR2()][m.getC2()] = position[m.getR1()][m.getC1()];
-        position[m.getR1()][m.getC1()] = Piece.EMPTY;
-        position[captureRow][m.getC2()] = Piece.EMPTY;
+        setPiece(m.getR2(), m.getC2(), position[m.getR1()][m.getC1()]);
+        setPiece(m.getR1(), m.getC1(), Piece.EMPTY);
+        setPiece(captureRow, m.getC2(), Piece.EMPTY);
+        fiftyMoveClock = 0;
+    }
+
+    /**
+     * Applies a NullMove to the board. The fifty move clock is reset so that
+     * repetition checks never look past the null move.
+     *
+     * @param m The move to apply.
+     */
+    private void makeMove(NullMove m) {
         fiftyMoveClock = 0;
     }
 
+    /**
+     * Passes the turn to the opponent without moving. Undone with unmakeMove.
+     */
+    public void makeNullMove() {
+        Move m = new NullMove(getCastlingRightsClone(), fiftyMoveClock);
+        makeMove(m);
+    }
+
     /**
      * Undoes the last move.
      */
     public void unmakeMove() {
         Move m = moveHistory.pop();
-        position[m.getR1()][m.getC1()] = m.getPiece();
+        if (isCapture(m)) pieceCount++;
+        if (!(m instanceof NullMove)) position[m.getR1()][m.getC1()] = m.getPiece();
 
         if (m instanceof RegularMove || m instanceof PromotionMove)
             position[m.getR2()][m.getC2()] = m.getDestinationPiece();
@@ -236,7 +477,8 @@ public class Board {
             position[m.getR2()][m.getC2()] = Piece.EMPTY;
             position[Board.getRow(4, m.getPiece().getColor())][m.getC2()] = m.getDestinationPiece();
         }
-        else throw new UnsupportedOperationException("Move type " + m.getClass().getSimpleName() + " not implemented.");
+        else if (!(m instanceof NullMove))
+            throw new UnsupportedOperationException("Move type " + m.getClass().getSimpleName() + " not implemented.");
 
         try {
             castlingRights = (CastlingRights) m.getCastlingRights().clone();
@@ -244,7 +486,8 @@ public class Board {
         fiftyMoveClock = m.getFiftyMoveClock();
         toMove = toMove.swap();
         if (toMove == Color.BLACK) moveNumber--;
-        previousPositions.remove(Arrays.deepHashCode(position));
+        hash = hashHistory[--ply];
+        enPassantColumn = enPassantHistory[ply];
     }
 
     /**
@@ -282,13 +525,88 @@ public class Board {
         return position[r][c].getColor() != color;
     }
 
+    /**
+     * Returns whether a given player has any pieces other than pawns and the king.
+     *
+     * @param color The color of the player.
+     * @return whether the player has non-pawn material.
+     */
+    public boolean hasNonPawnMaterial(Color color) {
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                Piece p = position[r][c];
+                if (p.getColor() == color && p.getType() != Piece.Type.PAWN && p.getType() != Piece.Type.KING)
+                    return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns whether the player to move is in check.
      *
      * @return whether the player to move is in check.
      */
     public boolean isCheck() {
-        return moveGen.isCheck(toMove);
+        if (telemetry == null) return inCheck();
+        long start = System.nanoTime();
+        boolean check = inCheck();
+        telemetry.add(Telemetry.Phase.LEGALITY, start);
+        return check;
+    }
+
+    /**
+     * Looks the king up in the attack map if it has been computed, and otherwise looks for
+     * attackers from the king, which is cheaper than computing the map.
+     */
+    private boolean inCheck() {
+        AttackMap attacks = ply < attackMaps.length ? attackMaps[ply] : null;
+        if (attacks == null || !attacks.isValid()) return moveGen.isCheck(toMove);
+        int king = attacks.getKingSquare(toMove);
+        if (king < 0) return moveGen.isCheck(toMove);
+        return attacks.isAttacked(king >> 3, king & 7, toMove.swap());
+    }
+
+    /**
+     * Returns the attack map of the current position, computing it if this is the first
+     * time it is needed. The map stays valid while moves are made from the position and unmade.
+     *
+     * @return the attack map.
+     */
+    public AttackMap getAttackMap() {
+        if (ply >= attackMaps.length) attackMaps = Arrays.copyOf(attackMaps, 2 * ply);
+        AttackMap attacks = attackMaps[ply];
+        if (attacks == null) attacks = attackMaps[ply] = new AttackMap();
+        if (!attacks.isValid()) attacks.compute(this);
+        return attacks;
+    }
+
+    /**
+     * Returns whether a move of the player to move doesn't leave its king in check. The move
+     * must be possible on the board apart from that.
+     *
+     * @param m The move.
+     * @return whether the move is legal.
+     */
+    public boolean isLegal(Move m) {
+        if (telemetry == null) return moveGen.moveLegal(m);
+        long start = System.nanoTime();
+        boolean legal = moveGen.moveLegal(m);
+        telemetry.add(Telemetry.Phase.LEGALITY, start);
+        return legal;
+    }
+
+    /**
+     * Finds the pieces equal to a given non-pawn piece that attack a given square.
+     *
+     * @param r         The row of the square.
+     * @param c         The column of the square.
+     * @param piece     The piece to look for.
+     * @param squares   Filled with the squares of the pieces found as 8 * row + column, needs room for 8.
+     * @return the number of pieces found.
+     */
+    public int findAttackers(int r, int c, Piece piece, int[] squares) {
+        return moveGen.findAttackers(r, c, piece, squares);
     }
 
     /**
@@ -297,7 +615,7 @@ public class Board {
      * @return whether the current position has been repeated before.
      */
     public boolean positionRepeated() {
-        return previousPositions.contains(Arrays.deepHashCode(position));
+        return countRepetitions(1) >= 1;
     }
 
     /**
@@ -306,18 +624,24 @@ public class Board {
      * @return whether the current position has been repeated for a third time.
      */
     private boolean threeFoldRepetition() {
-        Deque<Move> historyClone = ((ArrayDeque<Move>) moveHistory).clone();
-        int current = Arrays.deepHashCode(position);
-        int count = 1;
+        return countRepetitions(2) >= 2;
+    }
 
-        for (Move m : moveHistory) {
-            unmakeMove();
-            if (Arrays.deepHashCode(position) == current) count++;
+    /**
+     * Counts earlier occurrences of the current position. Only positions since the last
+     * irreversible move can repeat, and only those with the same player to move, so the
+     * scan steps two plies at a time and stops once the fifty move clock runs out.
+     *
+     * @param limit Stop counting after this many occurrences.
+     * @return the number of earlier occurrences, at most limit.
+     */
+    private int countRepetitions(int limit) {
+        int count = 0;
+        int earliest = Math.max(0, ply - fiftyMoveClock);
+        for (int i = ply - 2; i >= earliest; i -= 2) {
+            if (hashHistory[i] == hash && ++count >= limit) break;
         }
-        Iterator<Move> it = historyClone.descendingIterator();
-        while(it.hasNext()) makeMove(it.next());
-
-        return count >= 3;
+        return count;
     }
 
     /**
@@ -330,6 +654,182 @@ public class Board {
         return getLegalMoves().size() == 0 || fiftyMoveClock == 50 || threeFoldRepetition();
     }
 
+    /**
+     * Returns the standard algebraic notation of a legal move in the position, eg. "Nbd7" or "exd8=Q+".
+     *
+     * @param m The move.
+     * @return the SAN string.
+     */
+    public String toSAN(Move m) {
+        return toSAN(new StringBuilder(8), m).toString();
+    }
+
+    /**
+     * Appends the standard algebraic notation of a legal move in the position to a given
+     * StringBuilder. Other pieces that could make the same move are found with an attack
+     * lookup from the destination square, so no moves are generated unless the move gives check.
+     *
+     * @param sb The StringBuilder to append to.
+     * @param m  The move.
+     * @return the StringBuilder.
+     */
+    public StringBuilder toSAN(StringBuilder sb, Move m) {
+        Piece p = m.getPiece();
+        int r1 = m.getR1(), c1 = m.getC1(), r2 = m.getR2(), c2 = m.getC2();
+        if (m instanceof CastlingMove) {
+            sb.append(c2 == 6 ? "O-O" : "O-O-O");
+        } else {
+            boolean capture = m instanceof EnPassantMove || position[r2][c2] != Piece.EMPTY;
+            if (p.getType() == Piece.Type.PAWN) {
+                if (capture) sb.append((char) ('a' + c1)).append('x');
+            } else {
+                sb.append(p.getType());
+                // disambiguate against other pieces of the same kind that can legally reach the square
+                int[] squares = new int[8];
+                int n = moveGen.findAttackers(r2, c2, p, squares);
+                boolean ambiguous = false, sameColumn = false, sameRow = false;
+                for (int i = 0; i < n; i++) {
+                    int r = squares[i] / 8, c = squares[i] % 8;
+                    if (r == r1 && c == c1) continue;
+                    if (!moveGen.moveLegal(new RegularMove(r, c, r2, c2, p, getCastlingRightsClone(), fiftyMoveClock)))
+                        continue;
+                    ambiguous = true;
+                    sameColumn |= c == c1;
+                    sameRow |= r == r1;
+                }
+                if (ambiguous && (!sameColumn || sameRow)) sb.append((char) ('a' + c1));
+                if (ambiguous && sameColumn) sb.append(8 - r1);
+                if (capture) sb.append('x');
+            }
+            sb.append((char) ('a' + c2)).append(8 - r2);
+            if (m instanceof PromotionMove) sb.append('=').append(((PromotionMove) m).getPromotion());
+        }
+
+        makeMove(m);
+        if (isCheck()) sb.append(getLegalMoves().size() == 0 ? '#' : '+');
+        unmakeMove();
+        return sb;
+    }
+
+    /**
+     * Returns the FEN string of the position.
+     *
+     * @return the FEN string.
+     */
+    public String toFEN() {
+        return toFEN(new StringBuilder(90)).toString();
+    }
+
+    /**
+     * Appends the FEN string of the position to a given StringBuilder, which can be reused
+     * between calls to avoid allocating.
+     *
+     * @param sb The StringBuilder to append to.
+     * @return the StringBuilder.
+     */
+    public StringBuilder toFEN(StringBuilder sb) {
+        for (int r = 0; r < 8; r++) {
+            int empty = 0;
+            for (int c = 0; c < 8; c++) {
+                Piece p = position[r][c];
+                if (p.getType() == Piece.Type.EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) sb.append((char) ('0' + empty));
+                empty = 0;
+                char t = p.getType().toString().charAt(0);
+                sb.append(p.getColor() == Color.WHITE ? t : Character.toLowerCase(t));
+            }
+            if (empty > 0) sb.append((char) ('0' + empty));
+            if (r < 7) sb.append('/');
+        }
+        sb.append(toMove == Color.WHITE ? " w " : " b ");
+        int length = sb.length();
+        if (castlingRights.getKingside(Color.WHITE)) sb.append('K');
+        if (castlingRights.getQueenside(Color.WHITE)) sb.append('Q');
+        if (castlingRights.getKingside(Color.BLACK)) sb.append('k');
+        if (castlingRights.getQueenside(Color.BLACK)) sb.append('q');
+        if (sb.length() == length) sb.append('-');
+        int enPassant = getEnPassantColumn();
+        if (enPassant >= 0) sb.append(' ').append((char) ('a' + enPassant)).append(toMove == Color.WHITE ? '6' : '3');
+        else sb.append(" -");
+        return sb.append(' ').append(fiftyMoveClock).append(' ').append(moveNumber);
+    }
+
+    /**
+     * Writes the position in a fixed-width binary format of ENCODED_SIZE bytes at the
+     * buffer's position: a 64-bit occupancy bitmap (bit r * 8 + c), 16 bytes with one
+     * nibble per occupied square in bitmap order, a byte with the player to move and castling
+     * rights, a byte with the en passant column + 1, the fifty move clock and the move
+     * number as 16-bit numbers and two reserved bytes. Numbers are big-endian.
+     *
+     * @param out The buffer to write to.
+     */
+    public void encode(ByteBuffer out) {
+        int start = out.position();
+        int piecesStart = start + 8;
+        for (int i = 0; i < 24; i++) out.put((byte) 0);
+        long occupancy = 0;
+        int n = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            Piece p = position[sq >> 3][sq & 7];
+            if (p.getType() == Piece.Type.EMPTY) continue;
+            if (n == 32) throw new IllegalStateException("Too many pieces to encode");
+            occupancy |= 1L << sq;
+            int code = 2 * p.getType().ordinal() + p.getColor().ordinal();
+            int i = piecesStart + (n >> 1);
+            out.put(i, (byte) (out.get(i) | ((n & 1) == 0 ? code << 4 : code)));
+            n++;
+        }
+        for (int i = 0; i < 8; i++) out.put(start + i, (byte) (occupancy >>> (56 - 8 * i)));
+        int flags = toMove == Color.BLACK ? 1 : 0;
+        if (castlingRights.getKingside(Color.WHITE)) flags |= 2;
+        if (castlingRights.getQueenside(Color.WHITE)) flags |= 4;
+        if (castlingRights.getKingside(Color.BLACK)) flags |= 8;
+        if (castlingRights.getQueenside(Color.BLACK)) flags |= 16;
+        out.put((byte) flags);
+        out.put((byte) (enPassantColumn + 1));
+        out.put((byte) (fiftyMoveClock >> 8)).put((byte) fiftyMoveClock);
+        out.put((byte) (moveNumber >> 8)).put((byte) moveNumber);
+        out.put((byte) 0).put((byte) 0);
+    }
+
+    /**
+     * Resets the board in place to a position read in the format written by encode.
+     *
+     * @param in The buffer to read from, at the start of an encoded position.
+     * @throws IllegalArgumentException if the data isn't a valid encoded position.
+     */
+    public void decode(ByteBuffer in) {
+        long occupancy = 0;
+        for (int i = 0; i < 8; i++) occupancy = (occupancy << 8) | (in.get() & 0xFF);
+        int piecesStart = in.position();
+        int n = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            Piece p = Piece.EMPTY;
+            if ((occupancy & (1L << sq)) != 0) {
+                if (n == 32) throw new IllegalArgumentException("Too many pieces in encoded position");
+                int b = in.get(piecesStart + (n >> 1));
+                int code = ((n & 1) == 0 ? b >> 4 : b) & 0xF;
+                if (code >= 12) throw new IllegalArgumentException("Invalid piece code " + code);
+                p = Piece.of(TYPES[code >> 1], COLORS[code & 1]);
+                n++;
+            }
+            position[sq >> 3][sq & 7] = p;
+        }
+        in.position(piecesStart + 16);
+        int flags = in.get();
+        int enPassant = in.get() - 1;
+        int fifty = ((in.get() & 0xFF) << 8) | (in.get() & 0xFF);
+        int number = ((in.get() & 0xFF) << 8) | (in.get() & 0xFF);
+        in.get();
+        in.get();
+        if (enPassant < -1 || enPassant > 7) throw new IllegalArgumentException("Invalid en passant column " + enPassant);
+        reset((flags & 1) != 0 ? Color.BLACK : Color.WHITE, (flags & 2) != 0, (flags & 4) != 0,
+                (flags & 8) != 0, (flags & 16) != 0, enPassant, fifty, Math.max(1, number));
+    }
+
     /**
      * Returns a string representation of the board state. Used for testing purposes.
      *
@@ -395,6 +895,13 @@ public class Board {
             else throw new IllegalArgumentException("Illegal color: " + c);
         }
 
+        private void set(boolean wK, boolean wQ, boolean bK, boolean bQ) {
+            wKingCastlingRights = wK;
+            wQueenCastlingRights = wQ;
+            bKingCastlingRights = bK;
+            bQueenCastlingRights = bQ;
+        }
+
         private void removeKingside(Color c) {
             if (c == Color.WHITE) wKingCastlingRights = false;
             else if (c == Color.BLACK) bKingCastlingRights = false;
@@ -11,8 +11,18 @@ public class CLI {
 
     private Board board;
     private Search search;
+    private OpeningBook book;
     private BufferedReader reader;
     private Color playerColor;
+    // The search that found the computer's last move, or null if it came from the book.
+    private Search lastSearch;
+    // While the player thinks, the computer searches the move it expects the player to make.
+    private Thread ponderThread;
+    private Search ponderSearch;
+    private Move ponderResult;
+    private String predictedSAN;
+    private String predictedCoordinates;
+    private boolean ponderHit;
 
     /**
      * Constructs a CLI object based on a given board.
@@ -38,6 +48,15 @@ public class CLI {
         }
     }
 
+    /**
+     * Sets the opening book the computer plays from while the position is in it.
+     *
+     * @param book The opening book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
     /**
      * Starts the CLI.
      *
@@ -45,70 +64,148 @@ public class CLI {
      */
     public void startCLI() throws IOException {
         boolean gameNotEnded = true;
+        // the computer's reply, if it was found while pondering
+        Move reply = null;
         while (gameNotEnded) {
             if (board.getToMove() == playerColor) {
+                startPondering();
                 while (true) {
+                    String input = reader.readLine();
+                    if (input == null) {
+                        // the input ended, so nobody is left to play against
+                        stopPondering();
+                        return;
+                    }
+                    if (ponderThread != null && isPrediction(input)) {
+                        // the predicted move is already on the board
+                        reply = finishPondering();
+                        gameNotEnded = !board.gameEnded();
+                        break;
+                    }
+                    stopPondering();
                     try {
-                        Move m = parseMove(reader.readLine());
+                        Move m = parseMove(input);
                         board.makeMove(m);
                         gameNotEnded = !board.gameEnded();
                         break;
-                    } catch (MoveParseException e) {
+                    } catch (ParseException e) {
                         System.out.println(e.getMessage());
                     }
                 }
             } else {
-                Move m = search.findBestMove(SEARCH_DEPTH);
+                Move m = reply;
+                reply = null;
+                if (m == null) {
+                    lastSearch = null;
+                    if (book != null) m = book.findMove(board);
+                }
+                if (m == null) {
+                    m = search.findBestMove(SEARCH_DEPTH);
+                    lastSearch = search;
+                }
+                System.out.println(board.toSAN(m));
                 board.makeMove(m);
-                System.out.println(m);
                 gameNotEnded = !board.gameEnded();
             }
         }
         System.out.println("Game over.");
     }
 
-    private Move parseMove(String m) throws MoveParseException {
-        List<Move> legalMoves = board.getLegalMoves();
-        if (m.equals("KC")) {
-            return legalMoves.stream()
-                    .filter(lM -> lM instanceof CastlingMove && lM.getC2() == 6)
-                    .findAny().orElseThrow(MoveParseException::new);
-        } else if (m.equals("QC")) {
-            return legalMoves.stream()
-                    .filter(lM -> lM instanceof CastlingMove && lM.getC2() == 2)
-                    .findAny().orElseThrow(MoveParseException::new);
-        } else if (m.length() == 4 || m.length() == 5) { // regular move, promotion move or en passant
-            String origin = m.substring(0, 2);
-            String destination = m.substring(2);
-            try {
-                int r1 = Square.rowFromChar(origin.charAt(1));
-                int c1 = Square.columnFromChar(origin.charAt(0));
-                int r2 = Square.rowFromChar(destination.charAt(1));
-                int c2 = Square.columnFromChar(destination.charAt(0));
-                if (m.length() == 4) {
-                    return legalMoves.stream()
-                            .filter(lM -> (lM instanceof RegularMove || lM instanceof EnPassantMove) &&
-                                    lM.getR1() == r1 && lM.getC1() == c1 && lM.getR2() == r2 && lM.getC2() == c2)
-                            .findAny().orElseThrow(MoveParseException::new);
-                } else {
-                    Piece.Type promotion = Piece.Type.fromChar(m.charAt(4));
-                    return legalMoves.stream()
-                            .filter(lM -> lM instanceof PromotionMove && lM.getR1() == r1 && lM.getC1() == c1 &&
-                                    lM.getR2() == r2 && lM.getC2() == c2 && ((PromotionMove) lM).getPromotion() == promotion)
-                            .findAny().orElseThrow(MoveParseException::new);
-                }
-            } catch (ParseException e) {
-                throw new MoveParseException(e.getMessage());
+    /**
+     * Makes the reply the last search expects from the player and searches the position after
+     * it in the background, sharing the transposition table with the main search. Nothing is
+     * done if the computer's move came from the book.
+     */
+    private void startPondering() {
+        if (lastSearch == null) return;
+        List<Move> pv = lastSearch.getPrincipalVariation();
+        if (pv == null || pv.size() < 2) return;
+        Move prediction;
+        try {
+            prediction = SANParser.decode(pv.get(1).encode(), board);
+        } catch (SANParser.SANParseException e) {
+            return;
+        }
+        predictedSAN = withoutSuffix(board.toSAN(prediction));
+        predictedCoordinates = prediction.toString();
+        board.makeMove(prediction);
+
+        ponderSearch = new Search(board);
+        ponderSearch.setTranspositionTable(search.getTranspositionTable());
+        ponderSearch.setListener(s -> {
+            synchronized (this) {
+                if (ponderHit && s.getDepth() >= SEARCH_DEPTH) s.stop();
             }
-        } else throw new MoveParseException("Invalid move");
+        });
+        ponderHit = false;
+        ponderResult = null;
+        Search pondering = ponderSearch;
+        ponderThread = new Thread(() -> ponderResult = pondering.findBestMove(Search.MAX_DEPTH), "ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
     }
 
-    private static class MoveParseException extends ParseException {
-        public MoveParseException() {
-            super("Not legal");
+    /**
+     * Returns whether the player's input is the predicted move. Moves the prediction doesn't
+     * recognize, eg. because of an unusual notation, are simply treated as mispredictions.
+     */
+    private boolean isPrediction(String input) {
+        String move = withoutSuffix(input.trim());
+        return move.equals(predictedSAN) || move.equals(predictedCoordinates);
+    }
+
+    private static String withoutSuffix(String move) {
+        int end = move.length();
+        while (end > 0 && "+#!?".indexOf(move.charAt(end - 1)) >= 0) end--;
+        return move.substring(0, end);
+    }
+
+    /**
+     * Lets the ponder search continue until it has reached the normal search depth, and
+     * returns its best move.
+     */
+    private Move finishPondering() {
+        synchronized (this) {
+            ponderHit = true;
+            if (ponderSearch.getDepth() >= SEARCH_DEPTH) ponderSearch.stop();
         }
-        public MoveParseException(String message) {
-            super(message);
+        joinPonderThread();
+        lastSearch = ponderSearch;
+        return ponderResult;
+    }
+
+    /**
+     * Stops pondering after a misprediction and takes back the predicted move.
+     */
+    private void stopPondering() {
+        if (ponderThread == null) return;
+        ponderSearch.stop();
+        joinPonderThread();
+        board.unmakeMove();
+    }
+
+    private void joinPonderThread() {
+        // the board must not be touched while the ponder thread may still be using it
+        boolean interrupted = false;
+        while (true) {
+            try {
+                ponderThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if (interrupted) Thread.currentThread().interrupt();
+        ponderThread = null;
+    }
+
+    /**
+     * Parses a move in standard algebraic or coordinate notation. "KC" and "QC" are
+     * accepted for castling kingside and queenside.
+     */
+    private Move parseMove(String m) throws ParseException {
+        if (m.equals("KC")) return SANParser.parse("O-O", board);
+        if (m.equals("QC")) return SANParser.parse("O-O-O", board);
+        return SANParser.parse(m, board);
     }
 }
@@ -0,0 +1,91 @@
+/**
+ * Settings of an engine, parsed from a string like "nmp=off,lmr=on,ms=100".
+ * Supported keys are nmp and lmr (on/off), depth, ms (time per move) and nodes (per move).
+ */
+public class EngineConfig {
+    private final String name;
+    private boolean nullMovePruning;
+    private boolean lateMoveReductions;
+    private int depth;
+    private long millis;
+    private long nodes;
+
+    /**
+     * Constructs an EngineConfig from a given config string.
+     *
+     * @param config        The config string, may be empty.
+     * @param defaultDepth  The depth if none is given.
+     * @param defaultMillis The time per move if none is given.
+     * @param defaultNodes  The nodes per move if none are given.
+     * @throws IllegalArgumentException if the config string is invalid.
+     */
+    public EngineConfig(String config, int defaultDepth, long defaultMillis, long defaultNodes) {
+        name = config.isEmpty() ? "simplechess" : config;
+        nullMovePruning = true;
+        lateMoveReductions = true;
+        depth = defaultDepth;
+        millis = defaultMillis;
+        nodes = defaultNodes;
+
+        for (String option : config.split(",")) {
+            if (option.isEmpty()) continue;
+            int eq = option.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Option " + option + " has no value");
+            String key = option.substring(0, eq);
+            String value = option.substring(eq + 1);
+            try {
+                switch (key) {
+                    case "nmp":
+                        nullMovePruning = parseSwitch(value);
+                        break;
+                    case "lmr":
+                        lateMoveReductions = parseSwitch(value);
+                        break;
+                    case "depth":
+                        depth = Integer.parseUnsignedInt(value);
+                        break;
+                    case "ms":
+                        millis = Long.parseUnsignedLong(value);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseUnsignedLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Option " + option + " not valid: " + e.getMessage());
+            }
+        }
+        if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1");
+    }
+
+    private static boolean parseSwitch(String value) {
+        if (value.equals("on")) return true;
+        if (value.equals("off")) return false;
+        throw new IllegalArgumentException("Expected on or off, got " + value);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Creates a search on a given board with these settings.
+     *
+     * @param board The board.
+     * @return the search.
+     */
+    public Search newSearch(Board board) {
+        Search search = new Search(board);
+        search.setNullMovePruning(nullMovePruning);
+        search.setLateMoveReductions(lateMoveReductions);
+        search.setTimeLimit(millis);
+        search.setNodeLimit(nodes);
+        return search;
+    }
+}
@@ -1,29 +1,48 @@
 /**
- * Used for evaluating a chess position.
+ * Used for evaluating a chess position. Scores are in centipawns. Besides material, the
+ * evaluation rewards mobility, punishes attacks on the squares around the king and values
+ * pieces left undefended under attack, all read from the attack map of the position, which
+ * the board shares with its legality checks.
  */
 public class Evaluation {
+    // Centipawns for each safe square attacked, by piece type.
+    private static final int[] MOBILITY = {0, 4, 5, 2, 1, 0, 0};
+    // Centipawns lost for each attack on the king or the squares next to it.
+    private static final int KING_ZONE_ATTACK = 8;
+    // Centipawns lost for each of the player to move's pieces attacked and not defended.
+    private static final int HANGING_PENALTY = 10;
+    // The player to move can take one of the opponent's hanging pieces, but may lose it back
+    // or have something better to do, so it only gets this fraction of its value.
+    private static final int HANGING_THREAT_DIVISOR = 3;
+    private static final Piece.Type[] TYPES = Piece.Type.values();
+
     private Board board;
 
     public Evaluation(Board board) {
         this.board = board;
     }
 
-    private int pieceValue(Piece p) {
-        int c = p.getColor() == board.getToMove() ? 1 : -1;
-        switch (p.getType()) {
+    /**
+     * Returns the material value of a given piece type.
+     *
+     * @param t The piece type.
+     * @return the value of the piece type.
+     */
+    public static int materialValue(Piece.Type t) {
+        switch (t) {
             case EMPTY:
                 return 0;
             case PAWN:
-                return c;
+                return 100;
             case KNIGHT:
             case BISHOP:
-                return 3 * c;
+                return 300;
             case ROOK:
-                return 5 * c;
+                return 500;
             case QUEEN:
-                return 9 * c;
+                return 900;
             case KING:
-                return 200 * c;
+                return 20000;
             default:
                 throw new IllegalArgumentException("Null piece");
         }
@@ -35,12 +54,53 @@ public class Evaluation {
      * @return The evaluation for the current position;
      */
     public int evaluate() {
+        AttackMap attacks = board.getAttackMap();
+        Color us = board.getToMove();
+        Color them = us.swap();
         int eval = 0;
+        int threat = 0;
         for (int r = 0; r < 8; r++) {
             for (int c = 0; c < 8; c++) {
-                eval += pieceValue(board.getPiece(r, c));
+                Piece p = board.getPiece(r, c);
+                if (p == Piece.EMPTY) continue;
+                int value = materialValue(p.getType());
+                Color color = p.getColor();
+                boolean hanging = p.getType() != Piece.Type.KING && attacks.isAttacked(r, c, color.swap())
+                        && !attacks.isAttacked(r, c, color);
+                if (color == us) {
+                    eval += value;
+                    if (hanging) eval -= HANGING_PENALTY;
+                } else {
+                    eval -= value;
+                    if (hanging) threat = Math.max(threat, value);
+                }
             }
         }
+        eval += threat / HANGING_THREAT_DIVISOR;
+        eval += mobility(attacks, us) - mobility(attacks, them);
+        eval -= kingZoneAttacks(attacks, us) - kingZoneAttacks(attacks, them);
         return eval;
     }
+
+    private static int mobility(AttackMap attacks, Color color) {
+        int score = 0;
+        for (Piece.Type t : TYPES) score += MOBILITY[t.ordinal()] * attacks.getMobility(color, t);
+        return score;
+    }
+
+    /**
+     * Returns the penalty for the opponent's attacks on a player's king and the squares next to it.
+     */
+    private static int kingZoneAttacks(AttackMap attacks, Color color) {
+        int king = attacks.getKingSquare(color);
+        if (king < 0) return 0;
+        Color opponent = color.swap();
+        int count = 0;
+        for (int r = Math.max(0, (king >> 3) - 1); r <= Math.min(7, (king >> 3) + 1); r++) {
+            for (int c = Math.max(0, (king & 7) - 1); c <= Math.min(7, (king & 7) + 1); c++) {
+                count += attacks.attackers(r, c, opponent);
+            }
+        }
+        return KING_ZONE_ATTACK * count;
+    }
 }
@@ -0,0 +1,96 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the engine, so its behaviour can be lined up with CPU and GC
+ * activity in a recording. All of them are disabled by default and have to be enabled by
+ * name in the recording's settings, eg. "simplechess.SearchIteration#enabled=true". Callers
+ * only create events once Flight Recorder has been started (see isRecorderStarted), so a run
+ * without a recording never loads the JFR classes, and an event that isn't enabled in a
+ * running recording is never committed.
+ */
+public class Events {
+    /**
+     * Returns whether Flight Recorder has been started in this JVM, from the command line or
+     * later, eg. with jcmd. This only loads the FlightRecorder class, not the recorder.
+     *
+     * @return whether events may be recorded.
+     */
+    public static boolean isRecorderStarted() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("simplechess.SearchIteration")
+    @Label("Search Iteration")
+    @Description("An iteration of iterative deepening completed")
+    @Category("Chess")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class SearchIteration extends Event {
+        @Label("Depth")
+        public int depth;
+        @Label("Score")
+        public int score;
+        @Label("Nodes")
+        public long nodes;
+        @Label("Milliseconds since the search started")
+        public long millis;
+    }
+
+    @Name("simplechess.TableUsage")
+    @Label("Transposition Table Usage")
+    @Description("Snapshot of the transposition table at the end of a search")
+    @Category("Chess")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TableUsage extends Event {
+        @Label("Entries")
+        public int entries;
+        @Label("Permille of entries used")
+        public int permille;
+        @Label("Cutoffs by table entries")
+        public long hits;
+        @Label("Nodes")
+        public long nodes;
+    }
+
+    @Name("simplechess.PerftSubtree")
+    @Label("Perft Subtree")
+    @Description("Perft of a position or of the subtree of a root move")
+    @Category("Chess")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PerftSubtree extends Event {
+        @Label("FEN")
+        public String fen;
+        @Label("Move")
+        public String move;
+        @Label("Depth")
+        public int depth;
+        @Label("Nodes")
+        public long nodes;
+    }
+
+    @Name("simplechess.BatchJob")
+    @Label("Batch Job")
+    @Description("A position analyzed or a puzzle verified in a batch")
+    @Category("Chess")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class BatchJob extends Event {
+        @Label("Kind")
+        public String kind;
+        @Label("Index")
+        public long index;
+        @Label("Result")
+        public String result;
+        @Label("Jobs completed")
+        public long completed;
+    }
+}
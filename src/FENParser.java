@@ -1,4 +1,4 @@
-import java.util.Set;
+import java.nio.ByteBuffer;
 
 /**
  * Parses FEN strings, which are a way of specifying a chess position.
@@ -12,117 +12,170 @@ public class FENParser {
      * @return a Board corresponding to the FEN string.
      * @throws FENParseException if the FEN string is invalid.
      */
-    public static Board parse(String FEN) throws FENParseException {
-        String[] fields = FEN.split(" ");
-        if (fields.length < 4) throw new FENParseException("Not enough fields");
-
-        Piece[][] position = parseFirst(fields[0]);
-        Color toMove = parseSecond(fields[1]);
-        Board.CastlingRights castlingRights = parseThird(fields[2]);
-        int fiftyMoveClock = 0;
-        int moveNumber = 1;
-        if (fields.length >= 5) {
-            fiftyMoveClock = parseFifth(fields[4]);
-            if (fields.length == 6) moveNumber = parseSixth(fields[5]);
-            else if (fields.length > 6) throw new FENParseException("Too many fields");
-        }
-        Move enPassant = parseFourth(fields[3], toMove, position, castlingRights, fiftyMoveClock);
+    public static Board parse(CharSequence FEN) throws FENParseException {
+        Board board = new Board();
+        parse(FEN, board);
+        return board;
+    }
 
-        return new Board(position, toMove, enPassant, castlingRights, fiftyMoveClock, moveNumber);
+    /**
+     * Parses an ASCII FEN string in a byte buffer, from its position to its limit,
+     * into an existing board.
+     *
+     * @param FEN   The buffer containing the FEN string.
+     * @param board The board to reset to the position.
+     * @throws FENParseException if the FEN string is invalid.
+     */
+    public static void parse(ByteBuffer FEN, Board board) throws FENParseException {
+        parse(new AsciiSequence(FEN, FEN.position(), FEN.limit()), board);
     }
 
-    private static Piece[][] parseFirst(String field) throws FENParseException {
-        Piece[][] position = new Piece[8][8];
+    /**
+     * Parses a given FEN string into an existing board in a single pass, replacing its
+     * position and history. If the FEN string is invalid the board is left in an
+     * unspecified state.
+     *
+     * @param FEN   The FEN string.
+     * @param board The board to reset to the position.
+     * @throws FENParseException if the FEN string is invalid.
+     */
+    public static void parse(CharSequence FEN, Board board) throws FENParseException {
+        int length = FEN.length();
+        int i = 0;
 
-        String[] rows = field.split("/");
-        if (rows.length != 8) throw new FENParseException("Wrong number of rows " + rows.length);
-        for (int r = 0; r < 8; r++) {
-            int c = 0;
-            for (int i = 0; i < rows[r].length(); i++) {
-                char p = rows[r].charAt(i);
-                if (Character.isDigit(p)) {
-                    int n = p - '0';
-                    if (c + n > 8) throw new FENParseException("Bad row: " + rows[r]);
-                    for (int j = 0; j < n; j++, c++) position[r][c] = Piece.EMPTY;
-                }
-                else try {
-                    if (c > 7) throw new FENParseException("Bad row: " + rows[r]);
-                    position[r][c] = Piece.fromChar(p);
-                    c++;
-                } catch (IllegalArgumentException e) {
-                    throw new FENParseException("Illegal piece character '" + p + "' in row " + rows[r]);
-                }
+        // first field: the pieces
+        int r = 0, c = 0;
+        for (; i < length && FEN.charAt(i) != ' '; i++) {
+            char ch = FEN.charAt(i);
+            if (ch == '/') {
+                if (c != 8) throw new FENParseException("Bad row " + (r + 1));
+                r++;
+                c = 0;
+                if (r > 7) throw new FENParseException("Wrong number of rows " + (r + 1));
+            } else if (ch >= '1' && ch <= '8') {
+                int n = ch - '0';
+                if (c + n > 8) throw new FENParseException("Bad row " + (r + 1));
+                for (int j = 0; j < n; j++, c++) board.placePiece(r, c, Piece.EMPTY);
+            } else {
+                Piece p = pieceFromChar(ch);
+                if (p == null) throw new FENParseException("Illegal piece character '" + ch + "' in row " + (r + 1));
+                if (c > 7) throw new FENParseException("Bad row " + (r + 1));
+                board.placePiece(r, c++, p);
             }
         }
+        if (r != 7 || c != 8) throw new FENParseException("Wrong number of rows " + (r + 1));
 
-        return position;
-    }
-
-    private static Color parseSecond(String field) throws FENParseException {
-        if (field.equals("w")) return Color.WHITE;
-        else if (field.equals("b")) return Color.BLACK;
+        // second field: the player to move
+        i = skipSpaces(FEN, i);
+        if (i >= length) throw new FENParseException("Not enough fields");
+        Color toMove;
+        char side = FEN.charAt(i++);
+        if (side == 'w') toMove = Color.WHITE;
+        else if (side == 'b') toMove = Color.BLACK;
         else throw new FENParseException("Second field must be either 'w' or 'b'");
-    }
+        if (i < length && FEN.charAt(i) != ' ') throw new FENParseException("Second field must be either 'w' or 'b'");
 
-    private static Board.CastlingRights parseThird(String field) throws FENParseException {
-        if (field.equals("-")) return new Board.CastlingRights(false, false, false, false);
-        boolean wKingCastlingRights = false;
-        boolean wQueenCastlingRights = false;
-        boolean bKingCastlingRights = false;
-        boolean bQueenCastlingRights = false;
-        for (char c : field.toCharArray()) {
-            switch (c) {
+        // third field: castling rights
+        i = skipSpaces(FEN, i);
+        if (i >= length) throw new FENParseException("Not enough fields");
+        boolean wK = false, wQ = false, bK = false, bQ = false;
+        if (FEN.charAt(i) == '-') i++;
+        else for (; i < length && FEN.charAt(i) != ' '; i++) {
+            switch (FEN.charAt(i)) {
                 case 'K':
-                    wKingCastlingRights = true;
+                    wK = true;
                     break;
                 case 'Q':
-                    wQueenCastlingRights = true;
+                    wQ = true;
                     break;
                 case 'k':
-                    bKingCastlingRights = true;
+                    bK = true;
                     break;
                 case 'q':
-                    bQueenCastlingRights = true;
+                    bQ = true;
                     break;
                 default:
-                    throw new FENParseException("Illegal castling character '" + c + "'");
+                    throw new FENParseException("Illegal castling character '" + FEN.charAt(i) + "'");
             }
         }
-        return new Board.CastlingRights(wKingCastlingRights, wQueenCastlingRights, bKingCastlingRights, bQueenCastlingRights);
-    }
 
-    private static Move parseFourth(String field, Color toMove, Piece[][] position, Board.CastlingRights castlingRights, int fiftyMoveClock)
-            throws FENParseException {
-        if (field.equals("-")) return null;
-        if (field.length() != 2 || !Character.isDigit(field.charAt(1))) throw new FENParseException("Illegal en passant target square");
-        int r, c;
-        try {
-            r = Square.rowFromChar(field.charAt(1));
-            c = Square.columnFromChar(field.charAt(0));
-        } catch(ParseException e) {
-            throw new FENParseException("Illegal en passant target square: " + e.getMessage());
+        // fourth field: en passant target square
+        i = skipSpaces(FEN, i);
+        if (i >= length) throw new FENParseException("Not enough fields");
+        int enPassant = -1;
+        if (FEN.charAt(i) == '-') i++;
+        else {
+            if (i + 1 >= length) throw new FENParseException("Illegal en passant target square");
+            char file = FEN.charAt(i), rank = FEN.charAt(i + 1);
+            if (file < 'a' || file > 'h' || rank != (toMove == Color.WHITE ? '6' : '3'))
+                throw new FENParseException("Illegal en passant target square: " + file + rank);
+            enPassant = file - 'a';
+            i += 2;
+        }
+        if (i < length && FEN.charAt(i) != ' ') throw new FENParseException("Illegal en passant target square");
+
+        // optional fifth and sixth fields: fifty move clock and move number
+        int fiftyMoveClock = 0;
+        int moveNumber = 1;
+        i = skipSpaces(FEN, i);
+        if (i < length) {
+            int end = fieldEnd(FEN, i);
+            fiftyMoveClock = parseNumber(FEN, i, end, "Fifty move clock invalid");
+            i = skipSpaces(FEN, end);
+            if (i < length) {
+                end = fieldEnd(FEN, i);
+                moveNumber = parseNumber(FEN, i, end, "Move number invalid");
+                if (moveNumber < 1) throw new FENParseException("Move number must be at least 1");
+                i = skipSpaces(FEN, end);
+                if (i < length) throw new FENParseException("Too many fields");
+            }
         }
-        int r1 = r + (toMove == Color.WHITE ? -1 : 1);
-        int r2 = r + (toMove == Color.WHITE ? 1 : -1);
-        return new RegularMove(r1, c, r2, c, position[r2][c], castlingRights, fiftyMoveClock);
+
+        board.reset(toMove, wK, wQ, bK, bQ, enPassant, fiftyMoveClock, moveNumber);
     }
 
-    private static int parseFifth(String field) throws FENParseException {
-        try {
-            return Integer.parseUnsignedInt(field);
-        } catch (NumberFormatException e) {
-            throw new FENParseException("Fifty move clock invalid: " + e.getMessage());
+    private static Piece pieceFromChar(char ch) {
+        Color color = Character.isLowerCase(ch) ? Color.BLACK : Color.WHITE;
+        switch (Character.toUpperCase(ch)) {
+            case 'P':
+                return Piece.of(Piece.Type.PAWN, color);
+            case 'N':
+                return Piece.of(Piece.Type.KNIGHT, color);
+            case 'B':
+                return Piece.of(Piece.Type.BISHOP, color);
+            case 'R':
+                return Piece.of(Piece.Type.ROOK, color);
+            case 'Q':
+                return Piece.of(Piece.Type.QUEEN, color);
+            case 'K':
+                return Piece.of(Piece.Type.KING, color);
+            default:
+                return null;
         }
     }
 
-    private static int parseSixth(String field) throws FENParseException {
-        try {
-            int n = Integer.parseInt(field);
-            if (n < 1) throw new FENParseException("Move number must be at least 1");
-            return n;
-        } catch (NumberFormatException e) {
-            throw new FENParseException("Move number invalid: " + e.getMessage());
+    private static int skipSpaces(CharSequence s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ') i++;
+        return i;
+    }
+
+    private static int fieldEnd(CharSequence s, int i) {
+        while (i < s.length() && s.charAt(i) != ' ') i++;
+        return i;
+    }
+
+    /**
+     * Parses an unsigned decimal number between two indices without creating a string.
+     */
+    private static int parseNumber(CharSequence s, int start, int end, String error) throws FENParseException {
+        if (start == end || end - start > 9) throw new FENParseException(error);
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') throw new FENParseException(error + ": " + s.subSequence(start, end));
+            n = 10 * n + (ch - '0');
         }
+        return n;
     }
 
     public static class FENParseException extends ParseException {
@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A game between two engines on one board, with adjudication of hopeless and dead drawn positions.
+ */
+public class Game {
+    private final Board board;
+    private final String startFEN;
+    private final List<Move> moves;
+    private Result result;
+    private String termination;
+
+    /**
+     * Constructs a Game from a given starting position.
+     *
+     * @param board The board, which the game is played on.
+     */
+    public Game(Board board) {
+        this.board = board;
+        startFEN = board.toFEN();
+        moves = new ArrayList<>();
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public String getStartFEN() {
+        return startFEN;
+    }
+
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public String getTermination() {
+        return termination;
+    }
+
+    /**
+     * Plays a move and records it in the game.
+     *
+     * @param m The move.
+     */
+    public void playMove(Move m) {
+        board.makeMove(m);
+        moves.add(m);
+    }
+
+    /**
+     * Plays the game to the end between two searches on the game's board.
+     *
+     * @param white         The search playing white.
+     * @param whiteDepth    The maximum search depth per move of white.
+     * @param black         The search playing black.
+     * @param blackDepth    The maximum search depth per move of black.
+     * @param adjudication  When to end the game early.
+     * @return the result.
+     */
+    public Result play(Search white, int whiteDepth, Search black, int blackDepth, Adjudication adjudication) {
+        int drawPlies = 0;
+        int[] losingMoves = new int[2];
+        while (true) {
+            if (board.gameEnded()) {
+                if (board.getLegalMoves().size() == 0 && board.isCheck()) {
+                    result = board.getToMove() == Color.WHITE ? Result.BLACK_WINS : Result.WHITE_WINS;
+                    termination = "checkmate";
+                } else {
+                    result = Result.DRAW;
+                    termination = "draw";
+                }
+                return result;
+            }
+            if (moves.size() >= adjudication.maxPlies) {
+                result = Result.DRAW;
+                termination = "adjudication: move limit";
+                return result;
+            }
+
+            Color side = board.getToMove();
+            Search search = side == Color.WHITE ? white : black;
+            Move m = search.findBestMove(side == Color.WHITE ? whiteDepth : blackDepth);
+            int score = search.getScore();
+
+            // the side to move resigns after it has seen itself lost for long enough
+            if (score <= -adjudication.resignScore) losingMoves[side.ordinal()]++;
+            else losingMoves[side.ordinal()] = 0;
+            if (losingMoves[side.ordinal()] >= adjudication.resignMoves) {
+                result = side == Color.WHITE ? Result.BLACK_WINS : Result.WHITE_WINS;
+                termination = "adjudication: " + side + " resigns";
+                return result;
+            }
+            if (Math.abs(score) <= adjudication.drawScore && moves.size() >= adjudication.drawMinPlies) drawPlies++;
+            else drawPlies = 0;
+            if (drawPlies >= adjudication.drawPlies) {
+                result = Result.DRAW;
+                termination = "adjudication: draw";
+                return result;
+            }
+
+            playMove(m);
+        }
+    }
+
+    /**
+     * Appends the game in PGN format to a given StringBuilder.
+     *
+     * @param sb    The StringBuilder.
+     * @param event The event name.
+     * @param round The round.
+     * @param whiteName The name of the white player.
+     * @param blackName The name of the black player.
+     * @return the StringBuilder.
+     */
+    public StringBuilder toPGN(StringBuilder sb, String event, String round, String whiteName, String blackName) {
+        String resultString = result == null ? "*" : result.toString();
+        appendTag(sb, "Event", event);
+        appendTag(sb, "Site", "?");
+        appendTag(sb, "Date", "????.??.??");
+        appendTag(sb, "Round", round);
+        appendTag(sb, "White", whiteName);
+        appendTag(sb, "Black", blackName);
+        appendTag(sb, "Result", resultString);
+        if (!startFEN.equals(new Board().toFEN())) {
+            appendTag(sb, "SetUp", "1");
+            appendTag(sb, "FEN", startFEN);
+        }
+        if (termination != null) appendTag(sb, "Termination", termination);
+        sb.append('\n');
+
+        // the moves are replayed from the start, since SAN depends on the position before each move
+        Board replay;
+        try {
+            replay = FENParser.parse(startFEN);
+        } catch (FENParser.FENParseException e) {
+            throw new IllegalStateException(e);
+        }
+        int lineStart = sb.length();
+        boolean whiteToMove = replay.getToMove() == Color.WHITE;
+        int moveNumber = replay.getMoveNumber();
+        for (int i = 0; i < moves.size(); i++) {
+            if (sb.length() - lineStart > 72) {
+                sb.append('\n');
+                lineStart = sb.length();
+            }
+            if (whiteToMove) sb.append(moveNumber).append(". ");
+            else if (i == 0) sb.append(moveNumber).append("... ");
+            replay.toSAN(sb, moves.get(i));
+            replay.makeMove(moves.get(i));
+            sb.append(' ');
+            if (!whiteToMove) moveNumber++;
+            whiteToMove = !whiteToMove;
+        }
+        return sb.append(resultString).append("\n\n");
+    }
+
+    private static void appendTag(StringBuilder sb, String name, String value) {
+        sb.append('[').append(name).append(" \"").append(value.replace("\\", "\\\\").replace("\"", "\\\""))
+                .append("\"]\n");
+    }
+
+    /**
+     * Result of a game.
+     */
+    public enum Result {
+        WHITE_WINS("1-0"), BLACK_WINS("0-1"), DRAW("1/2-1/2");
+
+        private final String name;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Thresholds for ending a game early. Scores are relative to the player to move.
+     */
+    public static class Adjudication {
+        // Resign after 3 moves at 10 pawns down, draw after 20 plies within a fifth of a pawn of
+        // equality past move 40, stop at move 200. Scores are in centipawns.
+        public static final Adjudication DEFAULT = new Adjudication(1000, 3, 20, 20, 80, 400);
+
+        private final int resignScore;
+        private final int resignMoves;
+        private final int drawScore;
+        private final int drawPlies;
+        private final int drawMinPlies;
+        private final int maxPlies;
+
+        /**
+         * Constructs an Adjudication.
+         *
+         * @param resignScore   A player resigns when its score is at most minus this...
+         * @param resignMoves   ...for this many of its moves in a row.
+         * @param drawScore     The game is drawn when the score is at most this in absolute value...
+         * @param drawPlies     ...for this many plies in a row...
+         * @param drawMinPlies  ...after at least this many plies have been played.
+         * @param maxPlies      The game is drawn after this many plies.
+         */
+        public Adjudication(int resignScore, int resignMoves, int drawScore, int drawPlies, int drawMinPlies, int maxPlies) {
+            this.resignScore = resignScore;
+            this.resignMoves = resignMoves;
+            this.drawScore = drawScore;
+            this.drawPlies = drawPlies;
+            this.drawMinPlies = drawMinPlies;
+            this.maxPlies = maxPlies;
+        }
+    }
+}
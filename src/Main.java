@@ -1,6 +1,23 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 public class Main {
+    // Search depth of batch modes when neither a depth nor a time budget is given.
+    private static final int DEFAULT_DEPTH = 4;
+    // How much worse than a puzzle's solution the second best move must score, in centipawns.
+    private static final int PUZZLE_MARGIN = 200;
+
     public static void main(String[] rawArgs) throws IOException {
         Args args;
         try {
@@ -10,6 +27,127 @@ public class Main {
             return;
         }
 
+        if (args.epdFile != null) {
+            PerftRunner runner = new PerftRunner(args.threads, args.divideDepth > 0 ? args.divideDepth : Integer.MAX_VALUE,
+                    args.outputFile != null && args.outputFile.endsWith(".jsonl"));
+            boolean passed;
+            try (Writer out = openOutput(args.outputFile)) {
+                passed = runner.run(Paths.get(args.epdFile), out);
+            }
+            if (!passed) System.exit(1);
+            return;
+        }
+
+        if (args.analysisInput != null) {
+            int depth = args.testDepth > 0 ? args.testDepth : args.millis > 0 ? Search.MAX_DEPTH : DEFAULT_DEPTH;
+            BatchAnalysis analysis = new BatchAnalysis(args.threads, depth, args.millis,
+                    args.outputFile != null && args.outputFile.endsWith(".jsonl"));
+            try (BufferedReader in = args.analysisInput.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(args.analysisInput), StandardCharsets.UTF_8);
+                 Writer out = openOutput(args.outputFile)) {
+                analysis.run(in, out);
+            }
+            return;
+        }
+
+        if (args.puzzleInput != null) {
+            int depth = args.testDepth > 0 ? args.testDepth
+                    : args.millis > 0 || args.nodes > 0 ? Search.MAX_DEPTH : DEFAULT_DEPTH;
+            PuzzleVerifier verifier = new PuzzleVerifier(args.threads, depth, args.millis, args.nodes, PUZZLE_MARGIN,
+                    args.outputFile != null && args.outputFile.endsWith(".jsonl"));
+            try (BufferedReader in = args.puzzleInput.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(Paths.get(args.puzzleInput), StandardCharsets.UTF_8);
+                 Writer out = openOutput(args.outputFile)) {
+                verifier.run(in, out);
+            }
+            return;
+        }
+
+        if (args.pgnFile != null && args.explorerFile != null) {
+            long start = System.nanoTime();
+            OpeningExplorer.Indexer indexer = new OpeningExplorer.Indexer(Paths.get(args.explorerFile), args.bookDepth,
+                    args.minGames, 22);
+            try (PGNReader reader = new PGNReader(Paths.get(args.pgnFile))) {
+                reader.read(new Board(), indexer);
+                indexer.close();
+                System.out.format("Indexed %d games with %d errors in %.1f s%n", reader.getGames(), reader.getErrors(),
+                        (System.nanoTime() - start) / 1e9);
+            }
+            return;
+        }
+
+        if (args.pgnFile != null) {
+            long start = System.nanoTime();
+            PositionFile.Writer positions = args.outputFile == null ? null : new PositionFile.Writer(Paths.get(args.outputFile));
+            try (PGNReader reader = new PGNReader(Paths.get(args.pgnFile))) {
+                reader.read(new Board(), new PGNReader.Visitor() {
+                    @Override
+                    public void move(Board board, Move move) {
+                        if (positions == null) return;
+                        try {
+                            positions.write(board);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+
+                    @Override
+                    public void error(String message) {
+                        if (args.verbose) System.err.println(message);
+                    }
+                });
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.format("%d games, %d positions, %d errors, %.0f positions per second%n", reader.getGames(),
+                        reader.getPositions(), reader.getErrors(), reader.getPositions() / seconds);
+            } finally {
+                if (positions != null) positions.close();
+            }
+            return;
+        }
+
+        int gameDepth = args.testDepth > 0 ? args.testDepth
+                : args.millis > 0 || args.nodes > 0 ? Search.MAX_DEPTH : DEFAULT_DEPTH;
+
+        if (args.matchOpenings != null) {
+            Match match;
+            try {
+                EngineConfig engineA = new EngineConfig(args.engineA, gameDepth, args.millis, args.nodes);
+                EngineConfig engineB = new EngineConfig(args.engineB, gameDepth, args.millis, args.nodes);
+                List<String> openings = new ArrayList<>();
+                for (String line : Files.readAllLines(Paths.get(args.matchOpenings), StandardCharsets.UTF_8)) {
+                    if (!line.isBlank()) openings.add(line.trim());
+                }
+                int maxGames = args.maxGames > 0 ? args.maxGames : Match.DEFAULT_MAX_GAMES;
+                match = new Match(args.threads, engineA, engineB, openings, maxGames, args.elo0, args.elo1,
+                        0.05, 0.05, Game.Adjudication.DEFAULT);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            Match.Decision decision;
+            if (args.outputFile == null) {
+                decision = match.run(null);
+            } else {
+                try (Writer out = openOutput(args.outputFile)) {
+                    decision = match.run(out);
+                }
+            }
+            System.out.println(match);
+            if (decision == Match.Decision.H0) System.exit(1);
+            return;
+        }
+
+        if (args.selfPlayGames > 0) {
+            SelfPlay selfPlay = new SelfPlay(args.threads, new EngineConfig("", gameDepth, args.millis, args.nodes),
+                    args.randomPlies, Game.Adjudication.DEFAULT, System.nanoTime());
+            try (Writer out = openOutput(args.outputFile)) {
+                selfPlay.run(args.selfPlayGames, out);
+            }
+            return;
+        }
+
         Board board;
         try {
             board = args.FEN == null ? new Board() : FENParser.parse(args.FEN);
@@ -18,27 +156,188 @@ public class Main {
             return;
         }
 
-        if (args.divideDepth > 0) {
+        OpeningBook book = null;
+        if (args.bookFile != null) {
+            book = new OpeningBook(Paths.get(args.bookFile), args.bookDepth, new Random());
+        }
+
+        if (args.mateMoves > 0) {
+            MateSearch mateSearch = new MateSearch(board);
+            if (args.nodes > 0) mateSearch.setNodeLimit(args.nodes);
+            List<Move> line = mateSearch.findMate(args.mateMoves);
+            if (line != null) System.out.println("mate in " + (line.size() + 1) / 2 + ": " + toSAN(board, line));
+            else if (mateSearch.getResult() == MateSearch.Result.NO_MATE) System.out.println("no mate in " + args.mateMoves);
+            else System.out.println("no mate found in " + mateSearch.getNodes() + " nodes");
+        } else if (args.explorerFile != null) {
+            try (OpeningExplorer explorer = new OpeningExplorer(Paths.get(args.explorerFile))) {
+                for (OpeningExplorer.Continuation c : explorer.continuations(board)) {
+                    System.out.format("%-8s %8d  +%d =%d -%d%n", board.toSAN(c.getMove()), c.getGames(),
+                            c.getWhiteWins(), c.getDraws(), c.getBlackWins());
+                }
+            }
+        } else if (args.divideDepth > 0) {
+            Telemetry telemetry = startTelemetry(args, board);
             Perft p = new Perft(board);
-            p.diagPerft(args.divideDepth);
+            if (telemetry != null) telemetry.beginRun();
+            long nodes = p.diagPerft(args.divideDepth);
+            if (telemetry != null) telemetry.endRun("perft", nodes);
+            writeTelemetry(args, telemetry);
         } else if (args.testDepth > 0) {
+            Move bookMove = book == null ? null : book.findMove(board);
+            if (bookMove != null) {
+                System.out.println(bookMove);
+                return;
+            }
+            Telemetry telemetry = startTelemetry(args, board);
             Search s = new Search(board);
-            System.out.println(s.findBestMove(args.testDepth));
+            s.setNullMovePruning(!args.noNullMove);
+            s.setLateMoveReductions(!args.noReductions);
+            if (args.tablebaseDir != null) s.setTablebase(new Tablebase(Paths.get(args.tablebaseDir)));
+            long start = System.currentTimeMillis();
+            s.setListener(search -> System.out.format("info depth %d score %s nodes %d time %d pv %s%n",
+                    search.getDepth(), scoreString(search.getScore()), search.getNodes(),
+                    System.currentTimeMillis() - start, toSAN(board, search.getPrincipalVariation())));
+            if (args.lines > 1) {
+                for (Search.Line line : s.findBestLines(args.testDepth, args.lines))
+                    System.out.println(scoreString(line.getScore()) + " " + toSAN(board, line.getPrincipalVariation()));
+            } else {
+                System.out.println(s.findBestMove(args.testDepth));
+            }
+            if (args.verbose) System.out.println(s.getStatistics());
+            writeTelemetry(args, telemetry);
         } else {
             CLI c = new CLI(board);
+            c.setOpeningBook(book);
             c.startCLI();
         }
     }
 
+    /**
+     * Sets up telemetry on a board if a telemetry file was given.
+     *
+     * @return the telemetry, or null.
+     */
+    private static Telemetry startTelemetry(Args args, Board board) {
+        if (args.telemetryFile == null) return null;
+        Telemetry telemetry = new Telemetry();
+        board.setTelemetry(telemetry);
+        return telemetry;
+    }
+
+    /**
+     * Writes the results of telemetry, if any, to the telemetry file.
+     */
+    private static void writeTelemetry(Args args, Telemetry telemetry) throws IOException {
+        if (telemetry == null) return;
+        telemetry.close();
+        Files.writeString(Paths.get(args.telemetryFile), telemetry.toJSON() + "\n", StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a score as "cp" and the number of centipawns, or as "mate" and the number of moves to mate.
+     */
+    private static String scoreString(int score) {
+        return Search.isMate(score) ? "mate " + Search.mateDistance(score) : "cp " + score;
+    }
+
+    /**
+     * Returns a sequence of moves from the position of a board in SAN.
+     *
+     * @param board The board, which is left unchanged.
+     * @param moves The moves.
+     * @return the moves in SAN separated by spaces.
+     */
+    private static String toSAN(Board board, List<Move> moves) {
+        StringBuilder sb = new StringBuilder();
+        for (Move m : moves) {
+            if (sb.length() > 0) sb.append(' ');
+            board.toSAN(sb, m);
+            board.makeMove(m);
+        }
+        for (int i = 0; i < moves.size(); i++) board.unmakeMove();
+        return sb.toString();
+    }
+
+    /**
+     * Opens a writer to a given file, or to standard output if no file is given.
+     *
+     * @param file The file name, or null.
+     * @return the writer.
+     * @throws IOException if the file can't be opened.
+     */
+    private static Writer openOutput(String file) throws IOException {
+        if (file == null) return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+    }
+
     private static class Args {
         private String FEN;
         private int divideDepth;
         private int testDepth;
+        private boolean noNullMove;
+        private boolean noReductions;
+        private boolean verbose;
+        private String tablebaseDir;
+        private String bookFile;
+        private int bookDepth;
+        private String epdFile;
+        private String outputFile;
+        private int threads;
+        private String analysisInput;
+        private long millis;
+        private long nodes;
+        private int selfPlayGames;
+        private int randomPlies;
+        private String matchOpenings;
+        private String pgnFile;
+        private String explorerFile;
+        private int minGames;
+        private int lines;
+        private String engineA;
+        private String engineB;
+        private int maxGames;
+        private double elo0;
+        private double elo1;
+        private int mateMoves;
+        private String puzzleInput;
+        private String telemetryFile;
 
         public Args(String[] args) {
             FEN = null;
             divideDepth = 0;
             testDepth = 0;
+            noNullMove = false;
+            noReductions = false;
+            verbose = false;
+            tablebaseDir = null;
+            bookFile = null;
+            bookDepth = 20;
+            epdFile = null;
+            outputFile = null;
+            threads = Runtime.getRuntime().availableProcessors();
+            analysisInput = null;
+            millis = 0;
+            nodes = 0;
+            selfPlayGames = 0;
+            randomPlies = 8;
+            matchOpenings = null;
+            pgnFile = null;
+            explorerFile = null;
+            minGames = 1;
+            lines = 1;
+            engineA = "";
+            engineB = "";
+            maxGames = 0;
+            elo0 = 0;
+            elo1 = 5;
+            mateMoves = 0;
+            puzzleInput = null;
+            telemetryFile = null;
 
             for (int i = 0; i < args.length; i++) {
                 switch (args[i]) {
@@ -59,6 +358,135 @@ public class Main {
                             throw new ArgParseException("Argument -t " + args[i] + " not valid: " + e.getMessage());
                         }
                         break;
+                    case "-nonull":
+                        noNullMove = true;
+                        break;
+                    case "-nolmr":
+                        noReductions = true;
+                        break;
+                    case "-tb":
+                        tablebaseDir = args[++i];
+                        break;
+                    case "-b":
+                        bookFile = args[++i];
+                        break;
+                    case "-bd":
+                        try {
+                            bookDepth = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -bd " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-e":
+                        epdFile = args[++i];
+                        break;
+                    case "-o":
+                        outputFile = args[++i];
+                        break;
+                    case "-j":
+                        try {
+                            threads = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -j " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-a":
+                        analysisInput = args[++i];
+                        break;
+                    case "-ms":
+                        try {
+                            millis = Long.parseUnsignedLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -ms " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-n":
+                        try {
+                            nodes = Long.parseUnsignedLong(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -n " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-s":
+                        try {
+                            selfPlayGames = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -s " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-r":
+                        try {
+                            randomPlies = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -r " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-m":
+                        matchOpenings = args[++i];
+                        break;
+                    case "-p":
+                        pgnFile = args[++i];
+                        break;
+                    case "-x":
+                        explorerFile = args[++i];
+                        break;
+                    case "-mg":
+                        try {
+                            minGames = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -mg " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-mpv":
+                        try {
+                            lines = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -mpv " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-c1":
+                        engineA = args[++i];
+                        break;
+                    case "-c2":
+                        engineB = args[++i];
+                        break;
+                    case "-g":
+                        try {
+                            maxGames = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -g " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-elo0":
+                        try {
+                            elo0 = Double.parseDouble(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -elo0 " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-elo1":
+                        try {
+                            elo1 = Double.parseDouble(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -elo1 " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-mate":
+                        try {
+                            mateMoves = Integer.parseUnsignedInt(args[++i]);
+                        } catch (NumberFormatException e) {
+                            throw new ArgParseException("Argument -mate " + args[i] + " not valid: " + e.getMessage());
+                        }
+                        break;
+                    case "-pz":
+                        puzzleInput = args[++i];
+                        break;
+                    case "-tm":
+                        telemetryFile = args[++i];
+                        break;
+                    case "-v":
+                        verbose = true;
+                        break;
                 }
             }
         }
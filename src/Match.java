@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a match between two engine configurations in parallel, in-process games on a fixed set
+ * of openings. Each opening is played twice with colors swapped, and the openings are cycled
+ * through until the match ends. After every game a sequential probability ratio test decides
+ * whether engine A is at least elo1 stronger than engine B, or at most elo0, and the match stops
+ * as soon as either hypothesis is accepted. The game limit is only a safety net.
+ */
+public class Match {
+    // Enough games for the test to decide differences of a few Elo.
+    public static final int DEFAULT_MAX_GAMES = 20000;
+
+    private final int threads;
+    private final EngineConfig engineA;
+    private final EngineConfig engineB;
+    private final List<String> openings;
+    private final int maxGames;
+    private final double elo0;
+    private final double elo1;
+    private final double lowerBound;
+    private final double upperBound;
+    private final Game.Adjudication adjudication;
+    private final AtomicInteger nextGame;
+    private final AtomicBoolean stopped;
+    // results from engine A's point of view
+    private int wins;
+    private int draws;
+    private int losses;
+    private Decision decision;
+
+    /**
+     * Constructs a Match.
+     *
+     * @param threads       The number of games played at the same time.
+     * @param engineA       The engine under test.
+     * @param engineB       The engine it is compared with.
+     * @param openings      The FENs of the starting positions.
+     * @param maxGames      The number of games after which the match stops undecided.
+     * @param elo0          The Elo difference of the null hypothesis.
+     * @param elo1          The Elo difference of the alternative hypothesis.
+     * @param alpha         The probability of accepting H1 when H0 is true.
+     * @param beta          The probability of accepting H0 when H1 is true.
+     * @param adjudication  When to end games early.
+     */
+    public Match(int threads, EngineConfig engineA, EngineConfig engineB, List<String> openings, int maxGames,
+                 double elo0, double elo1, double alpha, double beta, Game.Adjudication adjudication) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        if (openings.isEmpty()) throw new IllegalArgumentException("Need at least one opening");
+        if (elo1 <= elo0) throw new IllegalArgumentException("elo1 must be greater than elo0");
+        this.threads = threads;
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.openings = openings;
+        this.maxGames = maxGames;
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.adjudication = adjudication;
+        lowerBound = Math.log(beta / (1 - alpha));
+        upperBound = Math.log((1 - beta) / alpha);
+        nextGame = new AtomicInteger();
+        stopped = new AtomicBoolean();
+        decision = Decision.UNDECIDED;
+    }
+
+    /**
+     * Plays the match until the test is decided or the game limit is reached. Progress is
+     * reported on standard error.
+     *
+     * @param pgn Where the games are written, or null.
+     * @return the decision of the test.
+     * @throws IOException if writing fails.
+     */
+    public Decision run(Writer pgn) throws IOException {
+        // parse the openings up front, so a bad FEN stops the match before any game is played
+        for (String fen : openings) {
+            try {
+                FENParser.parse(fen);
+            } catch (FENParser.FENParseException e) {
+                throw new IllegalArgumentException("Opening " + fen + " not valid: " + e.getMessage());
+            }
+        }
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                int n;
+                while (!stopped.get() && (n = nextGame.getAndIncrement()) < maxGames) playGame(n, pgn);
+            }, "match-" + i);
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (pgn != null) pgn.flush();
+        return decision;
+    }
+
+    private void playGame(int n, Writer pgn) {
+        Board board;
+        try {
+            board = FENParser.parse(openings.get(n / 2 % openings.size()));
+        } catch (FENParser.FENParseException e) {
+            throw new IllegalStateException(e);
+        }
+        // engine A plays the side to move in even games and the other side in odd games
+        boolean aFirst = n % 2 == 0;
+        boolean aWhite = aFirst == (board.getToMove() == Color.WHITE);
+        EngineConfig white = aWhite ? engineA : engineB;
+        EngineConfig black = aWhite ? engineB : engineA;
+
+        Game game = new Game(board);
+        Game.Result result = game.play(white.newSearch(board), white.getDepth(), black.newSearch(board),
+                black.getDepth(), adjudication);
+        StringBuilder sb = pgn == null ? null
+                : game.toPGN(new StringBuilder(), "Match", String.valueOf(n + 1), white.getName(), black.getName());
+
+        synchronized (this) {
+            // games still being played when the test was decided don't change the result
+            if (decision != Decision.UNDECIDED) return;
+            if (result == Game.Result.DRAW) draws++;
+            else if ((result == Game.Result.WHITE_WINS) == aWhite) wins++;
+            else losses++;
+
+            double llr = logLikelihoodRatio();
+            if (llr >= upperBound) decision = Decision.H1;
+            else if (llr <= lowerBound) decision = Decision.H0;
+            if (decision != Decision.UNDECIDED) stopped.set(true);
+            System.err.println(this);
+
+            if (sb != null) {
+                try {
+                    pgn.write(sb.toString());
+                } catch (IOException e) {
+                    throw new RuntimeException("Writing games failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the log-likelihood ratio of H1 against H0, using the normal approximation of the
+     * distribution of the score.
+     */
+    private double logLikelihoodRatio() {
+        int games = wins + draws + losses;
+        double score = score();
+        // half a game of each result keeps the variance from being zero while all results are equal
+        double variance = ((wins + 0.5) * (1 - score) * (1 - score) + (draws + 0.5) * (0.5 - score) * (0.5 - score)
+                + (losses + 0.5) * score * score) / (games + 1.5);
+        double s0 = expectedScore(elo0);
+        double s1 = expectedScore(elo1);
+        return games * (s1 - s0) * (2 * score - s0 - s1) / (2 * variance);
+    }
+
+    private double score() {
+        return (wins + draws / 2.0) / (wins + draws + losses);
+    }
+
+    /**
+     * Returns the variance of the score of a single game.
+     */
+    private double variance(double score) {
+        int games = wins + draws + losses;
+        return (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score)
+                + losses * score * score) / games;
+    }
+
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static double elo(double score) {
+        if (score <= 0) return Double.NEGATIVE_INFINITY;
+        if (score >= 1) return Double.POSITIVE_INFINITY;
+        return -400 * Math.log10(1 / score - 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        int games = wins + draws + losses;
+        if (games == 0) return "no games played";
+        double score = score();
+        double margin = 1.96 * Math.sqrt(variance(score) / games);
+        return String.format("%s vs %s: %d games (+%d =%d -%d), Elo %.1f [%.1f, %.1f], LLR %.2f [%.2f, %.2f] %s",
+                engineA.getName(), engineB.getName(), games, wins, draws, losses, elo(score), elo(score - margin),
+                elo(score + margin), logLikelihoodRatio(), lowerBound, upperBound, decision);
+    }
+
+    /**
+     * Outcome of the sequential test.
+     */
+    public enum Decision {
+        // H0: engine A is at most elo0 stronger, H1: engine A is at least elo1 stronger
+        H0, H1, UNDECIDED
+    }
+}
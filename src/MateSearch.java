@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds forced mates with proof-number search. The game tree is grown one node at a time
+ * at the most-proving node, the leaf whose proof or disproof would do most to decide
+ * whether the root is a mate. Its proof number is the number of leaves that would still
+ * have to be proven mates to prove the root, and its disproof number the number that would
+ * have to be disproven. Forcing lines, where the defender has few replies, are therefore
+ * explored first and mates are usually found after a tiny fraction of the nodes an
+ * alpha-beta search needs.
+ */
+public class MateSearch {
+    // Proof and disproof numbers of decided nodes, small enough to be summed without overflow.
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+    private final Board board;
+    private long nodeLimit;
+    private long nodes;
+    private Result result;
+
+    /**
+     * Constructs a MateSearch object from a given board.
+     *
+     * @param board The board.
+     */
+    public MateSearch(Board board) {
+        this.board = board;
+        nodeLimit = 1000000;
+    }
+
+    /**
+     * Limits the number of nodes of the tree, which is kept in memory.
+     *
+     * @param nodes The node limit.
+     */
+    public void setNodeLimit(long nodes) {
+        this.nodeLimit = nodes;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns whether the last search proved a mate, proved there is none, or ran out of nodes.
+     *
+     * @return the result of the last search.
+     */
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * Searches for a mate by the player to move in at most a given number of moves.
+     *
+     * @param moves The maximum number of moves of the player to move.
+     * @return the mating line, alternating between the mating moves and the longest defence
+     *         in the searched tree, or null if no mate was found.
+     */
+    public List<Move> findMate(int moves) {
+        if (moves < 1) throw new IllegalArgumentException("Need at least one move");
+        nodes = 1;
+        Node root = new Node(null, false, moves);
+        if (board.getLegalMoves().isEmpty()) {
+            root.proof = INFINITY;
+            root.disproof = 0;
+        }
+
+        while (root.proof != 0 && root.disproof != 0 && nodes < nodeLimit) {
+            // walk down to the most-proving node, making its moves
+            Node node = root;
+            int depth = 0;
+            while (node.children != null) {
+                node = mostProving(node);
+                board.makeMove(node.move);
+                depth++;
+            }
+            expand(node);
+            // update the proof numbers of the path, freeing the subtrees of disproven nodes
+            for (; node != null; node = node.parent) {
+                update(node);
+                if (node.disproof == 0 && node != root) node.children = null;
+            }
+            for (int i = 0; i < depth; i++) board.unmakeMove();
+        }
+
+        if (root.proof == 0) {
+            result = Result.MATE;
+            List<Move> line = new ArrayList<>();
+            for (Node node = root; node.children != null; ) {
+                node = best(node);
+                line.add(node.move);
+            }
+            return line;
+        }
+        result = root.disproof == 0 ? Result.NO_MATE : Result.UNKNOWN;
+        return null;
+    }
+
+    /**
+     * Returns the child to follow to the most-proving node: the one with the smallest proof
+     * number where the attacker moves, and the smallest disproof number where the defender moves.
+     */
+    private static Node mostProving(Node node) {
+        Node best = null;
+        for (Node child : node.children) {
+            if (best == null || (node.defender ? child.disproof < best.disproof : child.proof < best.proof))
+                best = child;
+        }
+        return best;
+    }
+
+    /**
+     * Adds the children of a leaf, in the position of the leaf, and sets their proof numbers.
+     */
+    private void expand(Node node) {
+        List<Move> moves = board.getLegalMoves();
+        node.children = new Node[moves.size()];
+        int i = 0;
+        for (Move m : moves) {
+            board.makeMove(m);
+            Node child = new Node(m, !node.defender, node.defender ? node.movesLeft : node.movesLeft - 1);
+            child.parent = node;
+            evaluate(child);
+            board.unmakeMove();
+            node.children[i++] = child;
+        }
+        nodes += moves.size();
+    }
+
+    /**
+     * Sets the proof numbers of a new node in the position of the node. Moves are counted to
+     * estimate them: a defender with few replies is easy to mate, an attacker with few moves
+     * probably can't.
+     */
+    private void evaluate(Node node) {
+        List<Move> moves = board.getLegalMoves();
+        if (moves.isEmpty()) {
+            // the defender is mated, anything else is a failure
+            boolean mate = node.defender && board.isCheck();
+            node.proof = mate ? 0 : INFINITY;
+            node.disproof = mate ? INFINITY : 0;
+        } else if (board.getFiftyMoveClock() == 50 || board.positionRepeated()
+                || (node.defender && node.movesLeft == 0)) {
+            node.proof = INFINITY;
+            node.disproof = 0;
+        } else if (node.defender) {
+            node.proof = moves.size();
+            node.disproof = 1;
+        } else {
+            node.proof = 1;
+            node.disproof = moves.size();
+        }
+    }
+
+    /**
+     * Recomputes the proof numbers of an expanded node from its children. The attacker needs
+     * one proven move and the defender one disproven reply.
+     */
+    private static void update(Node node) {
+        if (node.children == null) return;
+        int min = INFINITY, sum = 0;
+        for (Node child : node.children) {
+            int minOf = node.defender ? child.disproof : child.proof;
+            int sumOf = node.defender ? child.proof : child.disproof;
+            min = Math.min(min, minOf);
+            sum = Math.min(INFINITY, sum + sumOf);
+        }
+        if (node.defender) {
+            node.disproof = min;
+            node.proof = sum;
+        } else {
+            node.proof = min;
+            node.disproof = sum;
+        }
+    }
+
+    /**
+     * Returns the child of a proven node leading to the quickest mate against the longest defence.
+     */
+    private static Node best(Node node) {
+        Node best = null;
+        int bestLength = 0;
+        for (Node child : node.children) {
+            if (child.proof != 0) continue;
+            int length = mateLength(child);
+            if (best == null || (node.defender ? length > bestLength : length < bestLength)) {
+                best = child;
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of plies to the mate of a proven node in the searched tree.
+     */
+    private static int mateLength(Node node) {
+        if (node.children == null) return 0;
+        if (node.mateLength < 0) node.mateLength = 1 + mateLength(best(node));
+        return node.mateLength;
+    }
+
+    /**
+     * A position in the tree, reached by a move from its parent.
+     */
+    private static class Node {
+        private final Move move;
+        // Whether the defending player is to move.
+        private final boolean defender;
+        // The number of moves the attacker has left to mate in.
+        private final int movesLeft;
+        private Node parent;
+        private Node[] children;
+        private int proof;
+        private int disproof;
+        // The number of plies to the mate once the node is proven, or -1 if not known yet.
+        private int mateLength;
+
+        public Node(Move move, boolean defender, int movesLeft) {
+            this.move = move;
+            this.defender = defender;
+            this.movesLeft = movesLeft;
+            proof = 1;
+            disproof = 1;
+            mateLength = -1;
+        }
+    }
+
+    public enum Result {
+        MATE, NO_MATE, UNKNOWN
+    }
+}
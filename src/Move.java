@@ -69,6 +69,18 @@ public abstract class Move {
         this.destinationPiece = destinationValue;
     }
 
+    /**
+     * Encodes the move in 16 bits: the destination square in bits 0-5, the origin square in
+     * bits 6-11 and the promotion type, if any, in bits 12-14, where squares are 8 * row + column.
+     * Castling is encoded as the king's move. The encoding is 0 only for null moves.
+     *
+     * @return the encoded move.
+     */
+    public int encode() {
+        int promotion = this instanceof PromotionMove ? ((PromotionMove) this).getPromotion().ordinal() : 0;
+        return promotion << 12 | (8 * r1 + c1) << 6 | (8 * r2 + c2);
+    }
+
     /**
      * Converts a column index (0 to 7) to chess file (a - h)
      *
@@ -7,6 +7,10 @@ public class MoveGenerator {
     private final Board board;
 
     private static final Piece.Type[] pawnPromotions = { Piece.Type.KNIGHT, Piece.Type.BISHOP, Piece.Type.ROOK, Piece.Type.QUEEN };
+    private static final int[] knightRowSteps = {1, 1, 2, 2, -1, -1, -2, -2};
+    private static final int[] knightColSteps = {2, -2, 1, -1, 2, -2, 1, -1};
+    private static final int[] kingRowSteps = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] kingColSteps = {0, 0, 1, -1, 1, -1, 1, -1};
 
     /**
      * Constructs a MoveGenerator for the given board.
@@ -24,7 +28,29 @@ public class MoveGenerator {
      */
     public List<Move> generateMoves() {
         List<Move> moves = new LinkedList<>();
+        Telemetry telemetry = board.getTelemetry();
+        if (telemetry == null) {
+            generatePseudoLegalMoves(moves);
+            removeIllegalMoves(moves);
+            return moves;
+        }
 
+        long start = System.nanoTime();
+        generatePseudoLegalMoves(moves);
+        telemetry.add(Telemetry.Phase.MOVEGEN, start);
+        start = System.nanoTime();
+        removeIllegalMoves(moves);
+        telemetry.add(Telemetry.Phase.LEGALITY, start);
+        return moves;
+    }
+
+    /**
+     * Adds all moves in the current position to a list, including those that leave the
+     * playing player's king in check.
+     *
+     * @param moves The list of moves to add to.
+     */
+    public void generatePseudoLegalMoves(List<Move> moves) {
         for (int i = 0; i < 8; i++) {
             for (int j = 0; j < 8; j++) {
                 Piece p = board.getPiece(i, j);
@@ -32,19 +58,26 @@ public class MoveGenerator {
                 generatePieceMoves(i, j, p, moves);
             }
         }
-
-        removeIllegalMoves(moves);
-
-        return moves;
     }
 
     /**
-     * Returns whether a given move places the playing player's king in check.
+     * Returns whether a given move doesn't place the playing player's king in check. Most
+     * moves are decided from the attack map of the position: when the king isn't in check,
+     * a king move is legal if its destination isn't attacked, and another move if its piece
+     * can't be pinned. Only the rest are made to see whether they leave the king in check.
      *
      * @param m The move to check.
-     * @return whether the move places the king in check.
+     * @return whether the move is legal.
      */
-    private boolean moveLegal(Move m) {
+    public boolean moveLegal(Move m) {
+        Color color = m.getPiece().getColor();
+        AttackMap attacks = board.getAttackMap();
+        int king = attacks.getKingSquare(color);
+        if (king >= 0 && !(m instanceof EnPassantMove) && !attacks.isAttacked(king >> 3, king & 7, color.swap())) {
+            // no piece attacks through the king's square, so moving the king uncovers no attack
+            if (m.getPiece().getType() == Piece.Type.KING) return !attacks.isAttacked(m.getR2(), m.getC2(), color.swap());
+            if (!attacks.mayBePinned(m.getR1(), m.getC1(), color)) return true;
+        }
         board.makeMove(m);
         boolean legal = !isCheck(m.getPiece().getColor());
         board.unmakeMove();
@@ -64,7 +97,8 @@ public class MoveGenerator {
     }
 
     /**
-     * Returns whether a given square is attacked by the opponent of a given player.
+     * Returns whether a given square is attacked by the opponent of a given player. Like
+     * findAttackers, this looks outwards from the square for each kind of attacker.
      *
      * @param r     The row of the square to check.
      * @param c     The column of the square to check.
@@ -72,38 +106,102 @@ public class MoveGenerator {
      * @return whether a square is attacked.
      */
     private boolean squareAttacked(int r, int c, Color color) {
-        Piece pawn   = new Piece(Piece.Type.PAWN, color);
-        Piece knight = new Piece(Piece.Type.KNIGHT, color);
-        Piece bishop = new Piece(Piece.Type.BISHOP, color);
-        Piece rook   = new Piece(Piece.Type.ROOK, color);
-        Piece queen  = new Piece(Piece.Type.QUEEN, color);
-        Piece[] pieces = { pawn, knight, bishop, rook, queen, null };
-
-        List<List<Move>> allAttacks = new ArrayList<>();
-        for (int i = 0; i < 5; i++) {
-            List<Move> pieceMoves = new ArrayList<>();
-            generatePieceMoves(r, c, pieces[i], pieceMoves);
-            allAttacks.add(pieceMoves);
+        Color opponent = color.swap();
+        // an opponent pawn attacks from one row further towards the opponent's side
+        int pawnRow = r + Board.getRow(0, opponent) - Board.getRow(1, opponent);
+        Piece pawn = Piece.of(Piece.Type.PAWN, opponent);
+        if (pawnRow >= 0 && pawnRow <= 7 && ((c > 0 && board.getPiece(pawnRow, c - 1) == pawn)
+                || (c < 7 && board.getPiece(pawnRow, c + 1) == pawn)))
+            return true;
+        return hasStepper(r, c, knightRowSteps, knightColSteps, Piece.of(Piece.Type.KNIGHT, opponent))
+                || hasStepper(r, c, kingRowSteps, kingColSteps, Piece.of(Piece.Type.KING, opponent))
+                || hasSlider(r, c, 0, 4, Piece.of(Piece.Type.ROOK, opponent), Piece.of(Piece.Type.QUEEN, opponent))
+                || hasSlider(r, c, 4, 8, Piece.of(Piece.Type.BISHOP, opponent), Piece.of(Piece.Type.QUEEN, opponent));
+    }
+
+    private boolean hasStepper(int r, int c, int[] rowSteps, int[] colSteps, Piece piece) {
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = r + rowSteps[i];
+            int col = c + colSteps[i];
+            if (squareOnBoard(row, col) && board.getPiece(row, col) == piece) return true;
         }
+        return false;
+    }
 
-        // kings have to get handled separately to avoid infinite recursion
-        Piece king = new Piece(Piece.Type.KING, color);
-        pieces[5] = king;
-        List<Move> kingMoves = new ArrayList<>();
-        generateBasicKingMoves(r, c, king, kingMoves);
-        allAttacks.add(kingMoves);
-
-        for (int i = 0; i < pieces.length; i++) {
-            for (Move m : allAttacks.get(i)) {
-                Piece dest = board.getPiece(m.getR2(), m.getC2());
-                if (dest.getType() == pieces[i].getType() && dest.getColor().swap() == pieces[i].getColor())
-                    return true;
+    /**
+     * Returns whether either of two pieces is the first piece along any of the directions
+     * from first (inclusive) to last (exclusive), as in findSliders.
+     */
+    private boolean hasSlider(int r, int c, int first, int last, Piece piece, Piece other) {
+        for (int i = first; i < last; i++) {
+            int rowDir = kingRowSteps[i], colDir = kingColSteps[i];
+            for (int j = r + rowDir, k = c + colDir; squareOnBoard(j, k); j += rowDir, k += colDir) {
+                Piece p = board.getPiece(j, k);
+                if (p == Piece.EMPTY) continue;
+                if (p == piece || p == other) return true;
+                break;
             }
         }
-
         return false;
     }
 
+    /**
+     * Finds the pieces equal to a given piece that attack a given square, by looking outwards
+     * from the square instead of generating every move. Pawns aren't supported, since they
+     * don't move the way they attack.
+     *
+     * @param r         The row of the square.
+     * @param c         The column of the square.
+     * @param piece     The piece to look for.
+     * @param squares   Filled with the squares of the pieces found as 8 * row + column. Never
+     *                  needs room for more than 8.
+     * @return the number of pieces found.
+     */
+    public int findAttackers(int r, int c, Piece piece, int[] squares) {
+        switch (piece.getType()) {
+            case KNIGHT:
+                return findSteppers(r, c, knightRowSteps, knightColSteps, piece, squares);
+            case KING:
+                return findSteppers(r, c, kingRowSteps, kingColSteps, piece, squares);
+            case BISHOP:
+                return findSliders(r, c, 4, 8, piece, squares);
+            case ROOK:
+                return findSliders(r, c, 0, 4, piece, squares);
+            case QUEEN:
+                return findSliders(r, c, 0, 8, piece, squares);
+            default:
+                throw new IllegalArgumentException(piece + " is not supported.");
+        }
+    }
+
+    private int findSteppers(int r, int c, int[] rowSteps, int[] colSteps, Piece piece, int[] squares) {
+        int n = 0;
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = r + rowSteps[i];
+            int col = c + colSteps[i];
+            if (squareOnBoard(row, col) && board.getPiece(row, col) == piece) squares[n++] = 8 * row + col;
+        }
+        return n;
+    }
+
+    /**
+     * Finds sliding pieces along the directions from first (inclusive) to last (exclusive)
+     * of the straight directions followed by the diagonal ones.
+     */
+    private int findSliders(int r, int c, int first, int last, Piece piece, int[] squares) {
+        int n = 0;
+        for (int i = first; i < last; i++) {
+            int rowDir = kingRowSteps[i], colDir = kingColSteps[i];
+            for (int j = r + rowDir, k = c + colDir; squareOnBoard(j, k); j += rowDir, k += colDir) {
+                Piece p = board.getPiece(j, k);
+                if (p == Piece.EMPTY) continue;
+                if (p == piece) squares[n++] = 8 * j + k;
+                break;
+            }
+        }
+        return n;
+    }
+
     /**
      * Returns whether the king of a given color is in check.
      *
@@ -113,12 +211,11 @@ public class MoveGenerator {
     public boolean isCheck(Color color) {
         for (int r = 0; r < 8; r++) {
             for (int c = 0; c < 8; c++) {
-                if (board.squareHasPiece(r, c, new Piece(Piece.Type.KING, color)))
+                if (board.squareHasPiece(r, c, Piece.of(Piece.Type.KING, color)))
                     return squareAttacked(r, c, color);
             }
         }
-        System.out.println(board);
-        throw new IllegalStateException("Somehow didn't find a king...");
+        throw new IllegalStateException("Somehow didn't find a king in " + board.toFEN());
     }
 
     /**
@@ -260,19 +357,9 @@ public class MoveGenerator {
                 moves.add(new RegularMove(r, c, forward, c + 1, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
         }
         // En passant
-        Move lastMove = board.getLastMove();
-        if (lastMove != null
-                && lastMove.getPiece().getType() == Piece.Type.PAWN
-                && lastMove.getR1() == Board.getRow(6, piece.getColor())
-                && lastMove.getR2() == enPassantRow
-                && r == enPassantRow) {
-            // left
-            if (lastMove.getC2() == c - 1)
-                moves.add(new EnPassantMove(c, c-1, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
-            //right
-            else if (lastMove.getC2() == c + 1)
-                moves.add(new EnPassantMove(c, c+1, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
-        }
+        int enPassantColumn = board.getEnPassantColumn();
+        if (enPassantColumn >= 0 && r == enPassantRow && Math.abs(enPassantColumn - c) == 1)
+            moves.add(new EnPassantMove(c, enPassantColumn, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
     }
 
     /**
@@ -361,20 +448,21 @@ public class MoveGenerator {
         generateBasicKingMoves(r, c, piece, moves);
 
         // castling (assumes (r, c) square actually contains the king)
+        Color opponent = piece.getColor().swap();
         // kingside
         if (board.getCastlingRights().getKingside(piece.getColor())     // still has castling rights
-                && !squareAttacked(r, 4, piece.getColor())              // king is not in check
-                && !squareAttacked(r, 5, piece.getColor())              // square between origin and destination not attacked
                 && board.squareHasPiece(r, 5, Piece.EMPTY)
-                && board.squareHasPiece(r, 6, Piece.EMPTY))             // squares between king and rook empty
+                && board.squareHasPiece(r, 6, Piece.EMPTY)              // squares between king and rook empty
+                && !board.getAttackMap().isAttacked(r, 4, opponent)     // king is not in check
+                && !board.getAttackMap().isAttacked(r, 5, opponent))    // square between origin and destination not attacked
             moves.add(new CastlingMove(6, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
         // queenside
         if (board.getCastlingRights().getQueenside(piece.getColor())    // still has castling rights
-                && !squareAttacked(r, 4, piece.getColor())              // king is not in check
-                && !squareAttacked(r, 3, piece.getColor())              // square between origin and destination not attacked
                 && board.squareHasPiece(r, 3, Piece.EMPTY)
                 && board.squareHasPiece(r, 2, Piece.EMPTY)
-                && board.squareHasPiece(r, 1, Piece.EMPTY))             // squares between king and rook empty
+                && board.squareHasPiece(r, 1, Piece.EMPTY)              // squares between king and rook empty
+                && !board.getAttackMap().isAttacked(r, 4, opponent)     // king is not in check
+                && !board.getAttackMap().isAttacked(r, 3, opponent))    // square between origin and destination not attacked
             moves.add(new CastlingMove(2, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock()));
     }
 }
@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out the moves of a position to the search one at a time, best guesses first, doing
+ * as little work as possible before each one. Up to two hash moves, eg. from the principal
+ * variation and the transposition table, are decoded and tried without generating any moves.
+ * Only if none of them causes a cutoff are the moves generated, then tried as captures by
+ * most valuable victim and least valuable attacker, killer moves and the remaining quiet
+ * moves. A move's legality is only checked once it is picked.
+ */
+public class MovePicker {
+    private static final int FIRST = 0;
+    private static final int SECOND = 1;
+    private static final int GENERATE = 2;
+    private static final int CAPTURES = 3;
+    private static final int KILLERS = 4;
+    private static final int QUIETS = 5;
+    private static final int DONE = 6;
+
+    private final Board board;
+    private final List<Move> captures;
+    private final List<Move> quiets;
+    private final int[] captureScores;
+    private int first;
+    private int second;
+    private int killer1;
+    private int killer2;
+    private int stage;
+    private int next;
+    // The hash moves, if hasSingleMove has already decoded them, and whether it has generated the moves.
+    private Move firstMove;
+    private Move secondMove;
+    private boolean decoded;
+    private boolean generated;
+
+    /**
+     * Constructs a MovePicker for a given board. The picker can be reused for any number of
+     * positions of the board.
+     *
+     * @param board The board.
+     */
+    public MovePicker(Board board) {
+        this.board = board;
+        captures = new ArrayList<>();
+        quiets = new ArrayList<>();
+        captureScores = new int[256];
+    }
+
+    /**
+     * Starts picking the moves of the current position of the board.
+     *
+     * @param first     The encoded move to try first, or 0.
+     * @param second    The encoded move to try second, or 0.
+     * @param killer1   An encoded quiet move that caused a cutoff in a sibling position, or 0.
+     * @param killer2   Another such move, or 0.
+     */
+    public void reset(int first, int second, int killer1, int killer2) {
+        this.first = first;
+        this.second = second != first ? second : 0;
+        this.killer1 = killer1;
+        this.killer2 = killer2 != killer1 ? killer2 : 0;
+        captures.clear();
+        quiets.clear();
+        stage = FIRST;
+        decoded = false;
+        generated = false;
+    }
+
+    /**
+     * Returns whether the position has a single legal move. The moves are generated, but
+     * their legality is only checked until a second legal move is found. Must be called
+     * before the first move is picked.
+     *
+     * @return whether there is exactly one legal move.
+     */
+    public boolean hasSingleMove() {
+        firstMove = decode(first);
+        secondMove = decode(second);
+        decoded = true;
+        int legal = (firstMove != null ? 1 : 0) + (secondMove != null ? 1 : 0);
+        if (legal == 2) return false;
+        generate();
+        generated = true;
+        for (Move m : captures) {
+            if (board.isLegal(m) && ++legal == 2) return false;
+        }
+        for (Move m : quiets) {
+            if (board.isLegal(m) && ++legal == 2) return false;
+        }
+        return legal == 1;
+    }
+
+    /**
+     * Returns the next legal move.
+     *
+     * @return the move, or null if all moves have been picked.
+     */
+    public Move next() {
+        while (true) {
+            switch (stage) {
+                case FIRST:
+                    stage = SECOND;
+                    Move m = decoded ? firstMove : decode(first);
+                    if (m != null) return m;
+                    break;
+                case SECOND:
+                    stage = GENERATE;
+                    m = decoded ? secondMove : decode(second);
+                    if (m != null) return m;
+                    break;
+                case GENERATE:
+                    if (!generated) generate();
+                    next = 0;
+                    stage = CAPTURES;
+                    break;
+                case CAPTURES:
+                    // selection sort, since a cutoff usually comes before all captures are tried
+                    if (next == captures.size()) {
+                        next = 0;
+                        stage = KILLERS;
+                        break;
+                    }
+                    int best = next;
+                    for (int i = next + 1; i < captures.size(); i++) {
+                        if (captureScores[i] > captureScores[best]) best = i;
+                    }
+                    m = captures.get(best);
+                    captures.set(best, captures.get(next));
+                    captureScores[best] = captureScores[next];
+                    captures.set(next++, m);
+                    if (board.isLegal(m)) return m;
+                    break;
+                case KILLERS:
+                    stage = QUIETS;
+                    for (int i = 0; i < quiets.size(); i++) {
+                        int encoded = quiets.get(i).encode();
+                        if (encoded == killer1 || encoded == killer2) {
+                            // killers go to the front of the quiet moves
+                            Move killer = quiets.get(i);
+                            quiets.set(i, quiets.get(next));
+                            quiets.set(next++, killer);
+                        }
+                    }
+                    next = 0;
+                    break;
+                case QUIETS:
+                    if (next == quiets.size()) {
+                        stage = DONE;
+                        break;
+                    }
+                    m = quiets.get(next++);
+                    if (board.isLegal(m)) return m;
+                    break;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes a hash move, which must be legal in the position to be tried. A hash move
+     * from another position with the same index in the transposition table usually isn't.
+     */
+    private Move decode(int encoded) {
+        if (encoded == 0) return null;
+        try {
+            return SANParser.decode(encoded, board);
+        } catch (SANParser.SANParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generates the moves other than the hash moves and sorts them into captures and quiet moves.
+     */
+    private void generate() {
+        board.getPseudoLegalMoves(quiets);
+        int n = 0;
+        for (int i = 0; i < quiets.size(); i++) {
+            Move m = quiets.get(i);
+            int encoded = m.encode();
+            if (encoded == first || encoded == second) continue;
+            if (isQuiet(board, m)) {
+                quiets.set(n++, m);
+            } else {
+                captureScores[captures.size()] = captureScore(board, m);
+                captures.add(m);
+            }
+        }
+        quiets.subList(n, quiets.size()).clear();
+    }
+
+    /**
+     * Returns whether a move neither captures nor promotes.
+     *
+     * @param board The board.
+     * @param m     The move, which must not have been made yet.
+     * @return whether the move is quiet.
+     */
+    public static boolean isQuiet(Board board, Move m) {
+        return !(m instanceof PromotionMove || m instanceof EnPassantMove)
+                && board.getPiece(m.getR2(), m.getC2()) == Piece.EMPTY;
+    }
+
+    /**
+     * Scores a capture or promotion by the value of the captured piece and promotion,
+     * less a little for the value of the moving piece.
+     *
+     * @param board The board.
+     * @param m     The move, which must not have been made yet.
+     * @return the score, or Integer.MIN_VALUE for quiet moves.
+     */
+    public static int captureScore(Board board, Move m) {
+        int victim = m instanceof EnPassantMove ? Evaluation.materialValue(Piece.Type.PAWN)
+                : Evaluation.materialValue(board.getPiece(m.getR2(), m.getC2()).getType());
+        if (m instanceof PromotionMove) victim += Evaluation.materialValue(((PromotionMove) m).getPromotion());
+        if (victim == 0) return Integer.MIN_VALUE;
+        return 10 * victim - Evaluation.materialValue(m.getPiece().getType());
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Represents passing the turn without moving. Only used by the search.
+ */
+public class NullMove extends Move {
+    /**
+     * Constructs a NullMove. Extends Move.
+     */
+    public NullMove(Board.CastlingRights castlingRights, int fiftyMoveClock) {
+        super(0, 0, 0, 0, Piece.EMPTY, castlingRights, fiftyMoveClock);
+        setDestinationPiece(Piece.EMPTY);
+    }
+
+    /**
+     * Creates a string representation of the move.
+     *
+     * @return the string representation of the move.
+     */
+    public String toString() {
+        return "null";
+    }
+}
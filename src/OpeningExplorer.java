@@ -0,0 +1,393 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Statistics of the moves played from positions in a collection of games, looked up by
+ * Zobrist hash. The index is a memory-mapped file of records sorted by hash and move:
+ * the hash (8 bytes), the encoded move (2 bytes, see Move.encode), 2 unused bytes and
+ * the number of games won by white, drawn and won by black (4 bytes each). The hash of
+ * every 256th record is kept in memory, so a lookup touches a single block of the file.
+ */
+public class OpeningExplorer implements Closeable {
+    private static final int RECORD_SIZE = 24;
+    private static final int SPARSE_STEP = 256;
+    // Mappings are limited to 2 GB, so large files are mapped in chunks of whole records.
+    private static final long CHUNK_SIZE = (1L << 30) / RECORD_SIZE * RECORD_SIZE;
+
+    private final FileChannel channel;
+    private final long count;
+    private final MappedByteBuffer[] chunks;
+    private final long[] sparse;
+
+    /**
+     * Opens an index for lookups.
+     *
+     * @param file The index file.
+     * @throws IOException if the file can't be opened or isn't an index.
+     */
+    public OpeningExplorer(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size % RECORD_SIZE != 0) {
+            channel.close();
+            throw new IOException(file + " is not an opening index");
+        }
+        count = size / RECORD_SIZE;
+        chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        sparse = new long[(int) ((count + SPARSE_STEP - 1) / SPARSE_STEP)];
+        for (int i = 0; i < sparse.length; i++) sparse[i] = key((long) i * SPARSE_STEP);
+    }
+
+    /**
+     * Returns the moves played from the position of a given board, most played first.
+     * Moves that aren't legal on the board, which only happens if two positions share
+     * a hash, are left out.
+     *
+     * @param board The board.
+     * @return the continuations.
+     * @throws IOException if the file can't be mapped.
+     */
+    public List<Continuation> continuations(Board board) throws IOException {
+        long hash = board.getHash();
+        List<Continuation> continuations = new ArrayList<>();
+        for (long i = firstRecord(hash); i < count && key(i) == hash; i++) {
+            ByteBuffer chunk = chunk((int) (i * RECORD_SIZE / CHUNK_SIZE));
+            int offset = (int) (i * RECORD_SIZE % CHUNK_SIZE);
+            Move m;
+            try {
+                m = SANParser.decode(chunk.getShort(offset + 8) & 0xFFFF, board);
+            } catch (SANParser.SANParseException e) {
+                continue;
+            }
+            continuations.add(new Continuation(m, chunk.getInt(offset + 12), chunk.getInt(offset + 16),
+                    chunk.getInt(offset + 20)));
+        }
+        continuations.sort((a, b) -> Long.compare(b.getGames(), a.getGames()));
+        return continuations;
+    }
+
+    /**
+     * Returns the index of the first record with a hash of at least a given hash.
+     */
+    private long firstRecord(long hash) throws IOException {
+        // the last block starting below the hash is where records with the hash begin
+        int lo = 0, hi = sparse.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sparse[mid] < hash) lo = mid + 1;
+            else hi = mid;
+        }
+        long first = Math.max(0, (long) (lo - 1) * SPARSE_STEP);
+        long last = Math.min(count, (long) lo * SPARSE_STEP);
+        while (first < last) {
+            long mid = (first + last) >>> 1;
+            if (key(mid) < hash) first = mid + 1;
+            else last = mid;
+        }
+        return first;
+    }
+
+    private long key(long i) throws IOException {
+        long offset = i * RECORD_SIZE;
+        return chunk((int) (offset / CHUNK_SIZE)).getLong((int) (offset % CHUNK_SIZE));
+    }
+
+    private synchronized ByteBuffer chunk(int i) throws IOException {
+        if (chunks[i] == null) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, channel.size() - start));
+        }
+        return chunks[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A move played from a position, with the results of the games it was played in.
+     */
+    public static class Continuation {
+        private final Move move;
+        private final int whiteWins;
+        private final int draws;
+        private final int blackWins;
+
+        public Continuation(Move move, int whiteWins, int draws, int blackWins) {
+            this.move = move;
+            this.whiteWins = whiteWins;
+            this.draws = draws;
+            this.blackWins = blackWins;
+        }
+
+        public Move getMove() {
+            return move;
+        }
+
+        public int getWhiteWins() {
+            return whiteWins;
+        }
+
+        public int getDraws() {
+            return draws;
+        }
+
+        public int getBlackWins() {
+            return blackWins;
+        }
+
+        public long getGames() {
+            return (long) whiteWins + draws + blackWins;
+        }
+    }
+
+    /**
+     * Builds an index from games handed to it as a PGN visitor. Statistics are aggregated
+     * in a fixed-size hash table, which is sorted and written to a temporary run file
+     * whenever it fills up. Closing the indexer merges the runs into the index, so the
+     * memory used doesn't depend on the number of games.
+     */
+    public static class Indexer implements PGNReader.Visitor, Closeable {
+        private final Path file;
+        private final int maxPly;
+        private final int minGames;
+        private final List<Path> runs;
+        // the aggregation table, a slot is empty when its move is 0
+        private final long[] keys;
+        private final short[] moves;
+        private final int[][] results;
+        private final int mask;
+        private int size;
+        // the positions and moves of the current game
+        private final long[] gameKeys;
+        private final short[] gameMoves;
+        private int ply;
+        private long hash;
+
+        /**
+         * Constructs an Indexer.
+         *
+         * @param file      The index file to write.
+         * @param maxPly    The number of moves of each game that are indexed.
+         * @param minGames  Moves played in fewer games than this are left out of the index.
+         * @param tableBits The aggregation table has 2^tableBits entries of 24 bytes.
+         */
+        public Indexer(Path file, int maxPly, int minGames, int tableBits) {
+            if (tableBits < 4 || tableBits > 30) throw new IllegalArgumentException("Table size out of range");
+            this.file = file;
+            this.maxPly = maxPly;
+            this.minGames = minGames;
+            runs = new ArrayList<>();
+            keys = new long[1 << tableBits];
+            moves = new short[1 << tableBits];
+            results = new int[3][1 << tableBits];
+            mask = (1 << tableBits) - 1;
+            gameKeys = new long[maxPly];
+            gameMoves = new short[maxPly];
+        }
+
+        @Override
+        public boolean startGame(Board board) {
+            ply = 0;
+            hash = board.getHash();
+            return true;
+        }
+
+        @Override
+        public void move(Board board, Move move) {
+            if (ply < maxPly) {
+                gameKeys[ply] = hash;
+                gameMoves[ply++] = (short) move.encode();
+            }
+            hash = board.getHash();
+        }
+
+        @Override
+        public void endGame(Board board, CharSequence result) {
+            // 0 for a white win, 1 for a draw and 2 for a black win
+            int r;
+            if (result.length() == 3 && result.charAt(0) == '1') r = 0;
+            else if (result.length() == 3 && result.charAt(0) == '0') r = 2;
+            else if (result.length() == 7) r = 1;
+            else return;
+            try {
+                for (int i = 0; i < ply; i++) add(gameKeys[i], gameMoves[i], r);
+            } catch (IOException e) {
+                throw new IllegalStateException("Writing a run failed: " + e.getMessage());
+            }
+            ply = 0;
+        }
+
+        private void add(long key, short move, int result) throws IOException {
+            int slot = (int) ((key ^ move * 0x9E3779B97F4A7C15L) * 0xC2B2AE3D27D4EB4FL >>> 32) & mask;
+            while (moves[slot] != 0 && (keys[slot] != key || moves[slot] != move)) slot = (slot + 1) & mask;
+            if (moves[slot] == 0) {
+                keys[slot] = key;
+                moves[slot] = move;
+                size++;
+            }
+            results[result][slot]++;
+            if (size > mask / 4 * 3) spill();
+        }
+
+        /**
+         * Writes the table sorted to a new run file and empties it.
+         */
+        private void spill() throws IOException {
+            int[] order = new int[size];
+            int n = 0;
+            for (int slot = 0; slot <= mask; slot++) {
+                if (moves[slot] != 0) order[n++] = slot;
+            }
+            sort(order, 0, n - 1);
+
+            Path run = Files.createTempFile(file.toAbsolutePath().getParent(), "explorer", ".run");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (int i = 0; i < n; i++) {
+                    int slot = order[i];
+                    writeRecord(out, keys[slot], moves[slot], results[0][slot], results[1][slot], results[2][slot]);
+                }
+            }
+            for (int slot = 0; slot <= mask; slot++) {
+                moves[slot] = 0;
+                results[0][slot] = results[1][slot] = results[2][slot] = 0;
+            }
+            size = 0;
+        }
+
+        private int compare(int a, int b) {
+            int c = Long.compare(keys[a], keys[b]);
+            return c != 0 ? c : Integer.compare(moves[a] & 0xFFFF, moves[b] & 0xFFFF);
+        }
+
+        /**
+         * Sorts slots by hash and move with a quicksort, since the table is kept in primitive arrays.
+         */
+        private void sort(int[] order, int lo, int hi) {
+            while (lo < hi) {
+                int pivot = order[(lo + hi) >>> 1];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (compare(order[i], pivot) < 0) i++;
+                    while (compare(order[j], pivot) > 0) j--;
+                    if (i <= j) {
+                        int t = order[i];
+                        order[i++] = order[j];
+                        order[j--] = t;
+                    }
+                }
+                // recurse into the smaller part to bound the stack depth
+                if (j - lo < hi - i) {
+                    sort(order, lo, j);
+                    lo = i;
+                } else {
+                    sort(order, i, hi);
+                    hi = j;
+                }
+            }
+        }
+
+        private static void writeRecord(DataOutputStream out, long key, short move, int whiteWins, int draws,
+                                        int blackWins) throws IOException {
+            out.writeLong(key);
+            out.writeShort(move);
+            out.writeShort(0);
+            out.writeInt(whiteWins);
+            out.writeInt(draws);
+            out.writeInt(blackWins);
+        }
+
+        /**
+         * Merges the runs into the index file, adding up the records of equal positions and moves.
+         *
+         * @throws IOException if reading or writing fails.
+         */
+        @Override
+        public void close() throws IOException {
+            if (size > 0 || runs.isEmpty()) spill();
+            PriorityQueue<Run> queue = new PriorityQueue<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                for (Path path : runs) {
+                    Run run = new Run(path);
+                    if (run.next()) queue.add(run);
+                    else run.close();
+                }
+                while (!queue.isEmpty()) {
+                    Run first = queue.poll();
+                    long key = first.key;
+                    short move = first.move;
+                    long[] sum = new long[3];
+                    Run run = first;
+                    while (true) {
+                        for (int i = 0; i < 3; i++) sum[i] += run.results[i];
+                        if (run.next()) queue.add(run);
+                        else run.close();
+                        if (queue.isEmpty() || queue.peek().key != key || queue.peek().move != move) break;
+                        run = queue.poll();
+                    }
+                    if (sum[0] + sum[1] + sum[2] >= minGames) {
+                        writeRecord(out, key, move, (int) Math.min(sum[0], Integer.MAX_VALUE),
+                                (int) Math.min(sum[1], Integer.MAX_VALUE), (int) Math.min(sum[2], Integer.MAX_VALUE));
+                    }
+                }
+            } finally {
+                for (Run run : queue) run.close();
+                for (Path run : runs) Files.deleteIfExists(run);
+            }
+        }
+
+        /**
+         * A cursor over the records of a run file.
+         */
+        private static class Run implements Comparable<Run>, Closeable {
+            private final DataInputStream in;
+            private final int[] results;
+            private long key;
+            private short move;
+
+            private Run(Path path) throws IOException {
+                in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+                results = new int[3];
+            }
+
+            private boolean next() throws IOException {
+                try {
+                    key = in.readLong();
+                } catch (EOFException e) {
+                    return false;
+                }
+                move = in.readShort();
+                in.readShort();
+                for (int i = 0; i < 3; i++) results[i] = in.readInt();
+                return true;
+            }
+
+            @Override
+            public int compareTo(Run o) {
+                int c = Long.compare(key, o.key);
+                return c != 0 ? c : Integer.compare(move & 0xFFFF, o.move & 0xFFFF);
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        }
+    }
+}
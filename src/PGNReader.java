@@ -0,0 +1,336 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads games in PGN format from a channel through a fixed-size buffer and replays them on
+ * a single reused board, so databases of any size can be read in bounded memory. Tags and
+ * moves are handed to a visitor as views into the buffer instead of strings. Comments,
+ * variations and numeric annotation glyphs are skipped.
+ */
+public class PGNReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final AsciiSequence token;
+    private final StringBuilder tagValue;
+    private final StringBuilder fen;
+    private int pos;
+    private int limit;
+    // start of the token being read, which must be kept when the buffer is refilled, or -1
+    private int mark;
+    private boolean eof;
+    private long line;
+    private long games;
+    private long positions;
+    private long errors;
+
+    /**
+     * Constructs a PGNReader reading from a given channel.
+     *
+     * @param channel The channel.
+     */
+    public PGNReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        token = new AsciiSequence(buffer, 0, 0);
+        tagValue = new StringBuilder();
+        fen = new StringBuilder();
+        mark = -1;
+        line = 1;
+    }
+
+    /**
+     * Constructs a PGNReader reading from a given file.
+     *
+     * @param file The file.
+     * @throws IOException if the file can't be opened.
+     */
+    public PGNReader(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    public long getPositions() {
+        return positions;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Reads all remaining games, replaying each on a given board. A game with an invalid
+     * or illegal move is reported to the visitor and the rest of its moves are skipped.
+     *
+     * @param board   The board to replay the games on.
+     * @param visitor The visitor.
+     * @throws IOException if reading fails.
+     */
+    public void read(Board board, Visitor visitor) throws IOException {
+        while (readGame(board, visitor)) ;
+    }
+
+    /**
+     * Reads the next game, replaying it on a given board.
+     *
+     * @param board   The board to replay the game on.
+     * @param visitor The visitor.
+     * @return false if there were no more games.
+     * @throws IOException if reading fails.
+     */
+    public boolean readGame(Board board, Visitor visitor) throws IOException {
+        // tag section
+        fen.setLength(0);
+        boolean started = false;
+        int ch;
+        while ((ch = skipWhitespace()) == '[') {
+            pos++;
+            readTag(visitor);
+            started = true;
+        }
+        if (ch < 0 && !started) return false;
+
+        games++;
+        boolean skip = false;
+        try {
+            FENParser.parse(fen.length() > 0 ? fen : START_FEN, board);
+        } catch (FENParser.FENParseException e) {
+            error(visitor, "Bad FEN tag: " + e.getMessage());
+            skip = true;
+        }
+        if (!skip) skip = !visitor.startGame(board);
+
+        // movetext
+        while ((ch = skipWhitespace()) >= 0) {
+            mark = -1;
+            if (ch == '[') break;   // a new game without a result
+            if (ch == '{') {
+                skipPast('}');
+            } else if (ch == ';' || ch == '%') {
+                skipPast('\n');
+            } else if (ch == '(') {
+                skipVariation();
+            } else if (ch == '$') {
+                pos++;
+                readToken();
+            } else {
+                readToken();
+                if (token.length() == 0) {
+                    // a stray closing bracket
+                    pos++;
+                    continue;
+                }
+                if (isResult(token)) {
+                    visitor.endGame(board, token);
+                    mark = -1;
+                    return true;
+                }
+                if (skip) continue;
+                int start = skipMoveNumber(token);
+                if (start == token.length()) continue;
+                if (start > 0) token.set(buffer, mark + start, pos);
+                try {
+                    Move m = SANParser.parse(token, board);
+                    board.makeMove(m);
+                    positions++;
+                    visitor.move(board, m);
+                } catch (SANParser.SANParseException e) {
+                    error(visitor, "Move " + token + ": " + e.getMessage());
+                    skip = true;
+                }
+            }
+        }
+        mark = -1;
+        visitor.endGame(board, "*");
+        return true;
+    }
+
+    private void error(Visitor visitor, String message) {
+        errors++;
+        visitor.error("Game " + games + ", line " + line + ": " + message);
+    }
+
+    /**
+     * Reads a tag after its opening bracket, copying the value without escapes.
+     */
+    private void readTag(Visitor visitor) throws IOException {
+        skipWhitespace();
+        // the name stays marked while the value is read, so it is kept in the buffer
+        readToken();
+        int nameLength = pos - mark;
+        tagValue.setLength(0);
+        int ch = skipWhitespace();
+        if (ch == '"') {
+            pos++;
+            while ((ch = next()) >= 0 && ch != '"' && ch != '\n') {
+                if (ch == '\\') ch = next();
+                if (ch >= 0) tagValue.append((char) ch);
+            }
+        }
+        token.set(buffer, mark, mark + nameLength);
+        if (contentEquals(token, "FEN")) fen.append(tagValue);
+        visitor.tag(token, tagValue);
+        mark = -1;
+        skipPast(']');
+    }
+
+    /**
+     * Reads a token ending at whitespace or a special character, and marks its start.
+     */
+    private void readToken() throws IOException {
+        mark = pos;
+        int ch;
+        while ((ch = peek()) >= 0 && !isDelimiter(ch)) pos++;
+        token.set(buffer, mark, pos);
+    }
+
+    private static boolean isDelimiter(int ch) {
+        return ch <= ' ' || ch == '{' || ch == '}' || ch == '(' || ch == ')' || ch == '[' || ch == ']'
+                || ch == ';' || ch == '$' || ch == '"';
+    }
+
+    /**
+     * Returns the index after a move number like "12." or "12..." at the start of a token.
+     */
+    private static int skipMoveNumber(CharSequence s) {
+        int i = 0;
+        while (i < s.length() && Character.isDigit(s.charAt(i))) i++;
+        if (i == 0 || i == s.length() || s.charAt(i) != '.') return 0;
+        while (i < s.length() && s.charAt(i) == '.') i++;
+        return i;
+    }
+
+    private static boolean isResult(CharSequence s) {
+        return contentEquals(s, "1-0") || contentEquals(s, "0-1") || contentEquals(s, "1/2-1/2") || contentEquals(s, "*");
+    }
+
+    private static boolean contentEquals(CharSequence s, String t) {
+        if (s.length() != t.length()) return false;
+        for (int i = 0; i < t.length(); i++) {
+            if (s.charAt(i) != t.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void skipVariation() throws IOException {
+        int depth = 0;
+        int ch;
+        while ((ch = next()) >= 0) {
+            if (ch == '(') depth++;
+            else if (ch == ')' && --depth == 0) return;
+            else if (ch == '{') skipPast('}');
+            else if (ch == ';') skipPast('\n');
+        }
+    }
+
+    private void skipPast(int end) throws IOException {
+        int ch;
+        while ((ch = next()) >= 0 && ch != end) ;
+    }
+
+    private int skipWhitespace() throws IOException {
+        int ch;
+        while ((ch = peek()) >= 0 && ch <= ' ') next();
+        return ch;
+    }
+
+    private int next() throws IOException {
+        int ch = peek();
+        if (ch >= 0) {
+            pos++;
+            if (ch == '\n') line++;
+        }
+        return ch;
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buffer.get(pos) & 0xFF;
+    }
+
+    /**
+     * Reads more input into the buffer, keeping the marked token.
+     *
+     * @return false at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        int keep = mark >= 0 ? mark : pos;
+        if (keep == 0 && limit == buffer.capacity()) throw new IOException("Token at line " + line + " too long");
+        buffer.limit(limit).position(keep);
+        buffer.compact();
+        pos -= keep;
+        if (mark >= 0) mark -= keep;
+        int n;
+        while ((n = channel.read(buffer)) == 0) ;
+        limit = buffer.position();
+        if (n < 0) eof = true;
+        return n > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Receives the contents of games as they are read. The board and character sequences
+     * are reused, so they must be copied to be kept.
+     */
+    public interface Visitor {
+        /**
+         * Called for every tag of a game, before startGame.
+         *
+         * @param name  The tag name.
+         * @param value The tag value.
+         */
+        default void tag(CharSequence name, CharSequence value) {
+        }
+
+        /**
+         * Called with the starting position of a game.
+         *
+         * @param board The board.
+         * @return whether the moves of the game should be replayed.
+         */
+        default boolean startGame(Board board) {
+            return true;
+        }
+
+        /**
+         * Called after each move of a game.
+         *
+         * @param board The board in the position after the move.
+         * @param move  The move.
+         */
+        default void move(Board board, Move move) {
+        }
+
+        /**
+         * Called at the end of a game.
+         *
+         * @param board     The board in the last replayed position.
+         * @param result    The result, "1-0", "0-1", "1/2-1/2" or "*".
+         */
+        default void endGame(Board board, CharSequence result) {
+        }
+
+        /**
+         * Called when a game can't be replayed.
+         *
+         * @param message What went wrong.
+         */
+        default void error(String message) {
+        }
+    }
+}
@@ -22,18 +22,28 @@ public class Perft {
         return nodes;
     }
 
-    public void diagPerft(int depth) {
+    public long diagPerft(int depth) {
         long total = 0;
 
         List<Move> moves = board.getLegalMoves();
         System.out.format("%-10s %-10s %-10s\n", "move", "tot", "#");
         for (int i = 0; i < moves.size(); i++) {
+            Events.PerftSubtree event = Events.isRecorderStarted() ? new Events.PerftSubtree() : null;
+            if (event != null) event.begin();
             board.makeMove(moves.get(i));
             long d = perft(depth - 1);
             total += d;
+            if (event != null && event.shouldCommit()) {
+                event.fen = board.toFEN();
+                event.move = moves.get(i).toString();
+                event.depth = depth - 1;
+                event.nodes = d;
+                event.commit();
+            }
             System.out.format("%-10s %-10d %-10d\n", moves.get(i), d, i);
             board.unmakeMove();
         }
         System.out.println("Total: " + total);
+        return total;
     }
 }
@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs perft over an EPD file of positions with expected node counts, eg.
+ * "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - ;D1 20 ;D2 400".
+ * The file is streamed line by line and the positions are run in parallel,
+ * with results written as they complete.
+ */
+public class PerftRunner {
+    private final int threads;
+    private final int maxDepth;
+    private final boolean json;
+    private final AtomicBoolean mismatch;
+    private final AtomicLong positions;
+    private final AtomicLong totalNodes;
+
+    /**
+     * Constructs a PerftRunner.
+     *
+     * @param threads   The number of positions run at the same time.
+     * @param maxDepth  The deepest depth run for a position. The deepest depth listed for
+     *                  a position that doesn't exceed this is run.
+     * @param json      Whether to write results as JSON lines instead of CSV.
+     */
+    public PerftRunner(int threads, int maxDepth, boolean json) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        this.threads = threads;
+        this.maxDepth = maxDepth;
+        this.json = json;
+        mismatch = new AtomicBoolean();
+        positions = new AtomicLong();
+        totalNodes = new AtomicLong();
+    }
+
+    /**
+     * Runs every position in an EPD file, stopping at the first mismatch.
+     *
+     * @param epd The EPD file.
+     * @param out Where the results are written.
+     * @return whether every node count matched.
+     * @throws IOException if reading or writing fails.
+     */
+    public boolean run(Path epd, Writer out) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // bounds the number of queued positions so the file is never read far ahead
+        Semaphore inFlight = new Semaphore(2 * threads);
+        long start = System.nanoTime();
+        if (!json) out.write("line,fen,depth,expected,actual,ms,nps\n");
+
+        try (BufferedReader reader = Files.newBufferedReader(epd, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+            while (!mismatch.get() && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) continue;
+                PerftTask task = parseLine(line, lineNumber);
+                if (task == null) continue;
+                inFlight.acquireUninterruptibly();
+                pool.execute(() -> {
+                    try {
+                        task.run(out);
+                    } catch (Throwable t) {
+                        // the pool would otherwise drop the exception and go on with the next position
+                        mismatch.set(true);
+                        System.err.println("Line " + task.line + ": " + t);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.flush();
+        }
+
+        long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.err.println(positions.get() + " positions, " + totalNodes.get() + " nodes in " + ms + " ms ("
+                + totalNodes.get() * 1000 / ms + " nps)" + (mismatch.get() ? ", stopped at first mismatch" : ""));
+        return !mismatch.get();
+    }
+
+    /**
+     * Parses an EPD line into the task of its deepest allowed depth.
+     *
+     * @return the task, or null if the line has no usable depth.
+     */
+    private PerftTask parseLine(String line, long lineNumber) throws IOException {
+        String[] fields = line.split(";");
+        String fen = fields[0].trim();
+        int depth = 0;
+        long expected = 0;
+        for (int i = 1; i < fields.length; i++) {
+            String op = fields[i].trim();
+            if (!op.startsWith("D")) continue;
+            String[] parts = op.substring(1).split("\\s+");
+            try {
+                int d = Integer.parseInt(parts[0]);
+                if (d > depth && d <= maxDepth) {
+                    depth = d;
+                    expected = Long.parseLong(parts[1]);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Line " + lineNumber + ": bad perft operation '" + op + "'");
+            }
+        }
+        return depth == 0 ? null : new PerftTask(lineNumber, fen, depth, expected);
+    }
+
+    /**
+     * A single position to run perft on.
+     */
+    private class PerftTask {
+        private final long line;
+        private final String fen;
+        private final int depth;
+        private final long expected;
+
+        public PerftTask(long line, String fen, int depth, long expected) {
+            this.line = line;
+            this.fen = fen;
+            this.depth = depth;
+            this.expected = expected;
+        }
+
+        private void run(Writer out) {
+            if (mismatch.get()) return;
+            long actual;
+            long start = System.nanoTime();
+            Events.PerftSubtree event = Events.isRecorderStarted() ? new Events.PerftSubtree() : null;
+            if (event != null) event.begin();
+            try {
+                actual = new Perft(FENParser.parse(fen)).perft(depth);
+            } catch (FENParser.FENParseException e) {
+                System.err.println("Line " + line + ": " + e.getMessage());
+                actual = -1;
+            } catch (Throwable t) {
+                // eg. a position the move generator can't handle
+                System.err.println("Line " + line + ": " + t);
+                actual = -1;
+            }
+            if (event != null && event.shouldCommit()) {
+                event.fen = fen;
+                event.depth = depth;
+                event.nodes = actual;
+                event.commit();
+            }
+            long ns = Math.max(1, System.nanoTime() - start);
+            long nps = Math.max(0, actual) * 1000000000L / ns;
+            positions.incrementAndGet();
+            if (actual > 0) totalNodes.addAndGet(actual);
+            if (actual < 0 || actual != expected) mismatch.set(true);
+
+            String result = json
+                    ? "{\"line\":" + line + ",\"fen\":" + quote(fen) + ",\"depth\":" + depth + ",\"expected\":" + expected
+                        + ",\"actual\":" + actual + ",\"ms\":" + ns / 1000000 + ",\"nps\":" + nps + "}\n"
+                    : line + "," + fen + "," + depth + "," + expected + "," + actual + "," + ns / 1000000 + "," + nps + "\n";
+            try {
+                synchronized (out) {
+                    out.write(result);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Writing results failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
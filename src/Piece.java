@@ -4,20 +4,46 @@
 public class Piece {
     public static final Piece EMPTY = new Piece(Type.EMPTY, null);
     private static final int EMPTY_HASH_CODE = EMPTY.hashCode();
+    // Shared instances of every colored piece, indexed by type and color.
+    private static final Piece[][] PIECES = new Piece[Type.values().length][Color.values().length];
+
+    static {
+        for (Type t : Type.values()) {
+            if (t == Type.EMPTY) continue;
+            for (Color c : Color.values()) PIECES[t.ordinal()][c.ordinal()] = new Piece(t, c);
+        }
+    }
 
     private final Type type;
     private final Color color;
 
     /**
-     * Returns a new Piece from a piece character. Eg. 'P' for a white pawn.
+     * Returns the Piece of a piece character. Eg. 'P' for a white pawn.
      *
      * @param p The piece character.
-     * @return the new piece.
+     * @return the piece.
      */
     public static Piece fromChar(char p) {
         if (p == ' ') {
             return EMPTY;
-        } else return new Piece(p);
+        }
+        try {
+            return of(Type.fromChar(p), Character.isLowerCase(p) ? Color.BLACK : Color.WHITE);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the shared Piece of a given type and color, so that no new object is needed.
+     *
+     * @param type  The type.
+     * @param color The color, ignored for EMPTY.
+     * @return the piece.
+     */
+    public static Piece of(Type type, Color color) {
+        if (type == Type.EMPTY) return EMPTY;
+        return PIECES[type.ordinal()][color.ordinal()];
     }
 
     /**
@@ -31,17 +57,6 @@ public class Piece {
         this.color = color;
     }
     
-    private Piece(char p) {
-        if (Character.isLowerCase(p)) {
-            this.color = Color.BLACK;
-        } else this.color = Color.WHITE;
-        try {
-            this.type = Type.fromChar(p);
-        } catch (ParseException e) {
-            throw new IllegalArgumentException(e.getMessage());
-        }
-    }
-
     public Type getType() {
         return type;
     }
@@ -0,0 +1,142 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A memory-mapped file of positions in the binary format of Board.encode. Positions are
+ * decoded straight from the mapping into a reused Board, so nothing is copied or allocated
+ * per position. A PositionFile must not be read by several threads at once.
+ */
+public class PositionFile implements Closeable {
+    // Mappings are limited to 2 GB, so large files are mapped in chunks of whole records.
+    private static final long CHUNK_SIZE = (1L << 30) / Board.ENCODED_SIZE * Board.ENCODED_SIZE;
+
+    private final FileChannel channel;
+    private final long count;
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Opens a position file for reading.
+     *
+     * @param file The file.
+     * @throws IOException if the file can't be opened or its size isn't a whole number of positions.
+     */
+    public PositionFile(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size % Board.ENCODED_SIZE != 0) {
+            channel.close();
+            throw new IOException(file + " is not a position file");
+        }
+        count = size / Board.ENCODED_SIZE;
+        chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+    }
+
+    /**
+     * Returns the number of positions in the file.
+     *
+     * @return the number of positions.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Resets a board to the position at a given index.
+     *
+     * @param index The index of the position.
+     * @param board The board to reset.
+     * @throws IOException if the file can't be mapped.
+     */
+    public void read(long index, Board board) throws IOException {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Position " + index);
+        long offset = index * Board.ENCODED_SIZE;
+        ByteBuffer chunk = chunk((int) (offset / CHUNK_SIZE));
+        chunk.position((int) (offset % CHUNK_SIZE));
+        board.decode(chunk);
+    }
+
+    /**
+     * Calls an action with every position in the file in order. The same board is
+     * reset to each position, so it must not be kept by the action.
+     *
+     * @param board  The board to reset to each position.
+     * @param action The action.
+     * @throws IOException if the file can't be mapped.
+     */
+    public void forEach(Board board, Consumer<Board> action) throws IOException {
+        for (int i = 0; i < chunks.length; i++) {
+            ByteBuffer chunk = chunk(i);
+            chunk.position(0);
+            while (chunk.hasRemaining()) {
+                board.decode(chunk);
+                action.accept(board);
+            }
+        }
+    }
+
+    private synchronized ByteBuffer chunk(int i) throws IOException {
+        if (chunks[i] == null) {
+            long start = i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, channel.size() - start));
+        }
+        return chunks[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Appends positions to a position file through a buffer.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        /**
+         * Opens a position file for appending, creating it if needed.
+         *
+         * @param file The file.
+         * @throws IOException if the file can't be opened.
+         */
+        public Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            buffer = ByteBuffer.allocateDirect(4096 * Board.ENCODED_SIZE);
+        }
+
+        /**
+         * Writes the position of a board.
+         *
+         * @param board The board.
+         * @throws IOException if writing fails.
+         */
+        public void write(Board board) throws IOException {
+            if (buffer.remaining() < Board.ENCODED_SIZE) flush();
+            board.encode(buffer);
+        }
+
+        /**
+         * Writes all buffered positions to the file.
+         *
+         * @throws IOException if writing fails.
+         */
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -19,6 +19,6 @@ public class PromotionMove extends Move {
      * @return the string representation of the move.
      */
     public String toString() {
-        return columnToChar(c1) + "" + (8 - r1) + columnToChar(c2) + "" + (8 - r2) + ": " + promotion;
+        return super.toString() + Character.toLowerCase(promotion.toString().charAt(0));
     }
 }
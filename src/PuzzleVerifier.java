@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Verifies a stream of puzzles with a pool of search workers. A puzzle is a line with a FEN,
+ * a semicolon and the solution, eg. "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1; Rd8#". The player
+ * to move is the solver, and the solution alternates between the solver's moves and the
+ * opponent's replies, in SAN or coordinate notation. Each solver move must be the only good
+ * move: the best move of a search with two lines, with the second line clearly worse.
+ * Verdicts are written as soon as they are decided, tagged with the index of the puzzle in
+ * the input.
+ */
+public class PuzzleVerifier {
+    private static final Job POISON = new Job(-1, null);
+
+    private final int threads;
+    private final int depth;
+    private final long millis;
+    private final long nodes;
+    private final int margin;
+    private final boolean json;
+    private final AtomicLong verified;
+    private final AtomicLong done;
+
+    /**
+     * Constructs a PuzzleVerifier with a budget for the search of each solver move.
+     *
+     * @param threads   The number of workers.
+     * @param depth     The maximum search depth.
+     * @param millis    The time budget in milliseconds, or 0 for no limit.
+     * @param nodes     The node budget, or 0 for no limit.
+     * @param margin    How much worse than the solution the second best move must score.
+     * @param json      Whether to write verdicts as JSON lines instead of CSV.
+     */
+    public PuzzleVerifier(int threads, int depth, long millis, long nodes, int margin, boolean json) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1");
+        this.threads = threads;
+        this.depth = depth;
+        this.millis = millis;
+        this.nodes = nodes;
+        this.margin = margin;
+        this.json = json;
+        verified = new AtomicLong();
+        done = new AtomicLong();
+    }
+
+    /**
+     * Verifies every puzzle read from the input until it ends, or until a worker fails.
+     *
+     * @param in  The input, one puzzle per line.
+     * @param out Where the verdicts are written.
+     * @return the number of puzzles found valid.
+     * @throws IOException if reading or writing fails.
+     * @throws IllegalStateException if a worker fails for another reason.
+     */
+    public long run(BufferedReader in, Writer out) throws IOException {
+        BlockingQueue<Job> queue = new ArrayBlockingQueue<>(4 * threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> work(queue, out, failure), "puzzle-" + i);
+            workers[i].start();
+        }
+        if (!json) {
+            synchronized (out) {
+                out.write("index,verdict,ply,expected,found,score,second\n");
+            }
+        }
+
+        boolean complete = false;
+        try {
+            String line;
+            long index = 0;
+            while (failure.get() == null && (line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                if (!put(queue, new Job(index++, line), failure)) break;
+            }
+            for (int i = 0; i < threads && failure.get() == null; i++) put(queue, POISON, failure);
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Verification interrupted");
+        } finally {
+            if (!complete || failure.get() != null) {
+                // workers stop at their next job instead of emptying the queue
+                queue.clear();
+                for (Thread w : workers) w.interrupt();
+            }
+            boolean interrupted = false;
+            for (Thread w : workers) {
+                while (w.isAlive()) {
+                    try {
+                        w.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            out.flush();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) throw (IOException) t;
+        if (t != null) throw new IllegalStateException("Puzzle worker failed: " + t, t);
+        return verified.get();
+    }
+
+    /**
+     * Queues a job, waiting for room as long as no worker has failed.
+     *
+     * @return whether the job was queued.
+     */
+    private static boolean put(BlockingQueue<Job> queue, Job job, AtomicReference<Throwable> failure)
+            throws InterruptedException {
+        while (!queue.offer(job, 100, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs a worker until it takes the poison job or is interrupted. A worker keeps one board
+     * and one search, with its transposition table, for its whole life. If the worker fails,
+     * eg. writing a verdict, the failure is recorded so the reader stops feeding the workers.
+     */
+    private void work(BlockingQueue<Job> queue, Writer out, AtomicReference<Throwable> failure) {
+        try {
+            Board board = new Board();
+            Search search = newSearch(board);
+            while (true) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (job == POISON) return;
+                Events.BatchJob event = Events.isRecorderStarted() ? new Events.BatchJob() : null;
+                if (event != null) event.begin();
+                Verdict verdict = verify(job.puzzle, board, search);
+                long completed = done.incrementAndGet();
+                if (event != null && event.shouldCommit()) {
+                    event.kind = "puzzle";
+                    event.index = job.index;
+                    event.result = verdict.type.name();
+                    event.completed = completed;
+                    event.commit();
+                }
+                String result = format(job.index, verdict);
+                synchronized (out) {
+                    out.write(result);
+                    out.flush();
+                }
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+    }
+
+    private Search newSearch(Board board) {
+        Search search = new Search(board);
+        search.setTimeLimit(millis);
+        search.setNodeLimit(nodes);
+        return search;
+    }
+
+    /**
+     * Verifies a single puzzle.
+     *
+     * @param puzzle The puzzle, a FEN and the solution separated by a semicolon.
+     * @return the verdict.
+     */
+    public Verdict verify(String puzzle) {
+        Board board = new Board();
+        return verify(puzzle, board, newSearch(board));
+    }
+
+    /**
+     * Verifies a puzzle on a reused board and search. A puzzle the engine can't handle, eg.
+     * one without a king, is reported as invalid.
+     */
+    private Verdict verify(String puzzle, Board board, Search search) {
+        try {
+            return check(puzzle, board, search);
+        } catch (RuntimeException e) {
+            return new Verdict(Verdict.Type.INVALID, -1, null, null, 0, 0);
+        }
+    }
+
+    /**
+     * Checks every solver move of a puzzle. The board is reset to the puzzle's position and
+     * the search's transposition table is cleared, so the verdict doesn't depend on the
+     * puzzles verified before.
+     */
+    private Verdict check(String puzzle, Board board, Search search) {
+        int semicolon = puzzle.indexOf(';');
+        if (semicolon < 0) return new Verdict(Verdict.Type.INVALID, -1, null, null, 0, 0);
+        try {
+            FENParser.parse(puzzle.substring(0, semicolon).trim(), board);
+        } catch (FENParser.FENParseException e) {
+            return new Verdict(Verdict.Type.INVALID, -1, null, null, 0, 0);
+        }
+        String[] solution = puzzle.substring(semicolon + 1).trim().split("\\s+");
+        if (solution[0].isEmpty()) return new Verdict(Verdict.Type.INVALID, -1, null, null, 0, 0);
+
+        search.getTranspositionTable().clear();
+        int score = 0, second = 0;
+        for (int ply = 0; ply < solution.length; ply++) {
+            Move expected;
+            try {
+                expected = SANParser.parse(solution[ply], board);
+            } catch (SANParser.SANParseException e) {
+                return new Verdict(Verdict.Type.ILLEGAL, ply, solution[ply], null, 0, 0);
+            }
+            if (ply % 2 == 0) {
+                List<Search.Line> lines = search.findBestLines(depth, 2);
+                Search.Line best = lines.get(0);
+                score = best.getScore();
+                // a forced move is unique
+                second = lines.size() > 1 ? lines.get(1).getScore() : 0;
+                String found = board.toSAN(best.getMove());
+                if (best.getMove().encode() != expected.encode()) {
+                    // the solution may be as good as the move found, but then it isn't unique
+                    int solutionScore = lines.size() > 1 && lines.get(1).getMove().encode() == expected.encode()
+                            ? second : scoreMove(board, search, expected);
+                    Verdict.Type type = clearlyBetter(score, solutionScore) ? Verdict.Type.WRONG : Verdict.Type.AMBIGUOUS;
+                    return new Verdict(type, ply, solution[ply], found, score, solutionScore);
+                }
+                if (lines.size() > 1 && !clearlyBetter(score, second)) {
+                    return new Verdict(Verdict.Type.AMBIGUOUS, ply, solution[ply], board.toSAN(lines.get(1).getMove()),
+                            score, second);
+                }
+            }
+            board.makeMove(expected);
+        }
+        verified.incrementAndGet();
+        return new Verdict(Verdict.Type.VALID, -1, null, null, score, second);
+    }
+
+    /**
+     * Scores a move by searching the position after it one ply less deep. The board is left
+     * as it was.
+     */
+    private int scoreMove(Board board, Search search, Move m) {
+        board.makeMove(m);
+        search.findBestMove(Math.max(1, depth - 1));
+        board.unmakeMove();
+        int s = -search.getScore();
+        // a mate after the move is a ply further away before it
+        return Search.isMate(s) ? s - Integer.signum(s) : s;
+    }
+
+    /**
+     * Returns whether a score is clearly better than another. A mate is better than a slower
+     * mate or no mate, and other scores must differ by the margin.
+     */
+    private boolean clearlyBetter(int score, int other) {
+        if (Search.isMate(score) && score > 0) return !Search.isMate(other) || other < 0
+                || Search.mateDistance(other) > Search.mateDistance(score);
+        return score - other >= margin;
+    }
+
+    private String format(long index, Verdict v) {
+        return json
+                ? "{\"index\":" + index + ",\"verdict\":\"" + v.type + "\",\"ply\":" + v.ply
+                    + ",\"expected\":" + quote(v.expected) + ",\"found\":" + quote(v.found)
+                    + ",\"score\":" + v.score + ",\"second\":" + v.second + "}\n"
+                : index + "," + v.type + "," + v.ply + "," + (v.expected == null ? "" : v.expected) + ","
+                    + (v.found == null ? "" : v.found) + "," + v.score + "," + v.second + "\n";
+    }
+
+    private static String quote(String s) {
+        return s == null ? "null" : "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * The verdict on a puzzle, with the solver move where it failed, the score of the best
+     * move there and the score of the solver move, or of the second best move if the solver
+     * move is the best. Valid puzzles have the scores of the two best moves at the last
+     * solver move.
+     */
+    public static class Verdict {
+        public enum Type {
+            // every solver move is the only good move
+            VALID,
+            // another move is about as good as a solver move
+            AMBIGUOUS,
+            // another move is clearly better than a solver move
+            WRONG,
+            // a move of the solution is illegal or can't be parsed
+            ILLEGAL,
+            // the FEN, the position or the format of the line is invalid
+            INVALID
+        }
+
+        private final Type type;
+        private final int ply;
+        private final String expected;
+        private final String found;
+        private final int score;
+        private final int second;
+
+        public Verdict(Type type, int ply, String expected, String found, int score, int second) {
+            this.type = type;
+            this.ply = ply;
+            this.expected = expected;
+            this.found = found;
+            this.score = score;
+            this.second = second;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getPly() {
+            return ply;
+        }
+    }
+
+    /**
+     * A puzzle waiting to be verified.
+     */
+    private static class Job {
+        private final long index;
+        private final String puzzle;
+
+        public Job(long index, String puzzle) {
+            this.index = index;
+            this.puzzle = puzzle;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Parses moves in standard algebraic notation, eg. "Nbd7", "exd8=Q+" or "O-O". Coordinate
+ * notation, eg. "e2e4" or "e7e8q", is accepted too. The origin of a move is found with an
+ * attack lookup from its destination square, so no moves are generated.
+ */
+public class SANParser {
+    private static final Piece.Type[] TYPES = Piece.Type.values();
+
+    /**
+     * Parses a move in the position of a given board. Check and annotation suffixes are ignored.
+     *
+     * @param SAN   The move.
+     * @param board The board, which isn't changed.
+     * @return the legal move.
+     * @throws SANParseException if the move is invalid, illegal or ambiguous.
+     */
+    public static Move parse(CharSequence SAN, Board board) throws SANParseException {
+        int end = SAN.length();
+        while (end > 0 && isSuffix(SAN.charAt(end - 1))) end--;
+        if (end < 2) throw new SANParseException("Invalid move " + SAN);
+
+        if (isCastling(SAN, end, 3)) return castling(board, 6);
+        if (isCastling(SAN, end, 5)) return castling(board, 2);
+
+        // coordinate notation
+        if ((end == 4 || end == 5) && isColumn(SAN.charAt(0)) && isRow(SAN.charAt(1))
+                && isColumn(SAN.charAt(2)) && isRow(SAN.charAt(3))) {
+            return fromSquares(board, '8' - SAN.charAt(1), SAN.charAt(0) - 'a', '8' - SAN.charAt(3),
+                    SAN.charAt(2) - 'a', end == 5 ? promotionType(SAN.charAt(4)) : null);
+        }
+
+        Piece.Type type = Piece.Type.PAWN;
+        int i = 0;
+        char first = SAN.charAt(0);
+        if (first == 'N' || first == 'B' || first == 'R' || first == 'Q' || first == 'K') {
+            type = pieceType(first);
+            i = 1;
+        }
+
+        Piece.Type promotion = null;
+        if (type == Piece.Type.PAWN && !isRow(SAN.charAt(end - 1))) {
+            promotion = promotionType(SAN.charAt(--end));
+            if (end > 0 && SAN.charAt(end - 1) == '=') end--;
+        }
+
+        if (end - i < 2 || !isColumn(SAN.charAt(end - 2)) || !isRow(SAN.charAt(end - 1)))
+            throw new SANParseException("Invalid destination square in " + SAN);
+        int r2 = '8' - SAN.charAt(end - 1), c2 = SAN.charAt(end - 2) - 'a';
+        end -= 2;
+
+        boolean capture = end > i && SAN.charAt(end - 1) == 'x';
+        if (capture) end--;
+        int r1 = -1, c1 = -1;
+        if (i < end && isColumn(SAN.charAt(i))) c1 = SAN.charAt(i++) - 'a';
+        if (i < end && isRow(SAN.charAt(i))) r1 = '8' - SAN.charAt(i++);
+        if (i != end) throw new SANParseException("Invalid move " + SAN);
+
+        Piece target = board.getPiece(r2, c2);
+        if (capture && target == Piece.EMPTY
+                && !(type == Piece.Type.PAWN && c2 == board.getEnPassantColumn()))
+            throw new SANParseException(SAN + " is not a capture");
+
+        if (type == Piece.Type.PAWN) {
+            if (r1 >= 0) throw new SANParseException("Invalid move " + SAN);
+            Color color = board.getToMove();
+            if (c1 < 0 || c1 == c2) {
+                // a push, from one or two squares behind the destination
+                r1 = r2 - Board.getRow(1, color) + Board.getRow(0, color);
+                if (r1 >= 0 && r1 <= 7 && board.getPiece(r1, c2) == Piece.EMPTY && r1 == Board.getRow(2, color))
+                    r1 = Board.getRow(1, color);
+                c1 = c2;
+            } else {
+                r1 = r2 - Board.getRow(1, color) + Board.getRow(0, color);
+            }
+        }
+        return resolve(board, type, r1, c1, r2, c2, promotion);
+    }
+
+    /**
+     * Decodes a move encoded by Move.encode in the position of a given board.
+     *
+     * @param encoded   The encoded move.
+     * @param board     The board, which isn't changed.
+     * @return the legal move.
+     * @throws SANParseException if the move isn't legal.
+     */
+    public static Move decode(int encoded, Board board) throws SANParseException {
+        int from = encoded >>> 6 & 63, to = encoded & 63, promotion = encoded >>> 12 & 7;
+        if (promotion >= TYPES.length) throw new SANParseException("Invalid promotion in move " + encoded);
+        return fromSquares(board, from / 8, from % 8, to / 8, to % 8, promotion == 0 ? null : promotionType(TYPES[promotion]));
+    }
+
+    /**
+     * Finds the legal move from one square to another.
+     */
+    private static Move fromSquares(Board board, int r1, int c1, int r2, int c2, Piece.Type promotion)
+            throws SANParseException {
+        Piece p = board.getPiece(r1, c1);
+        if (p.getColor() != board.getToMove())
+            throw new SANParseException("No piece to move on " + (char) ('a' + c1) + (8 - r1));
+        if (p.getType() == Piece.Type.KING && r1 == r2 && c1 == 4 && Math.abs(c2 - c1) == 2)
+            return castling(board, c2);
+        return resolve(board, p.getType(), r1, c1, r2, c2, promotion);
+    }
+
+    /**
+     * Finds the legal move of a piece of a given type to a given square. The origin may be
+     * partly known, and is fully known for pawns.
+     */
+    private static Move resolve(Board board, Piece.Type type, int r1, int c1, int r2, int c2, Piece.Type promotion)
+            throws SANParseException {
+        Color color = board.getToMove();
+        Piece piece = Piece.of(type, color);
+        Piece target = board.getPiece(r2, c2);
+        if (!board.squareCapturableBy(r2, c2, color)) throw new SANParseException("Not legal");
+
+        Move move;
+        if (type == Piece.Type.PAWN) {
+            if (r1 < 0 || r1 > 7 || board.getPiece(r1, c1) != piece) throw new SANParseException("Not legal");
+            boolean lastRow = r2 == Board.getRow(7, color);
+            if (lastRow != (promotion != null)) throw new SANParseException(lastRow ? "Missing promotion" : "Not legal");
+            int forward = Board.getRow(1, color) - Board.getRow(0, color);
+            if (c1 == c2) {
+                // pushes need empty squares, double pushes only from the second row
+                if (target != Piece.EMPTY) throw new SANParseException("Not legal");
+                if (r2 - r1 == 2 * forward) {
+                    if (r1 != Board.getRow(1, color) || board.getPiece(r1 + forward, c1) != Piece.EMPTY)
+                        throw new SANParseException("Not legal");
+                } else if (r2 - r1 != forward) throw new SANParseException("Not legal");
+            } else if (Math.abs(c2 - c1) != 1 || r2 - r1 != forward) {
+                throw new SANParseException("Not legal");
+            } else if (target == Piece.EMPTY) {
+                if (c2 != board.getEnPassantColumn() || r2 != Board.getRow(5, color))
+                    throw new SANParseException("Not legal");
+                move = new EnPassantMove(c1, c2, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock());
+                if (!board.isLegal(move)) throw new SANParseException("Not legal");
+                return move;
+            }
+            move = promotion != null
+                    ? new PromotionMove(r1, c1, r2, c2, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock(), promotion)
+                    : new RegularMove(r1, c1, r2, c2, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock());
+            if (!board.isLegal(move)) throw new SANParseException("Not legal");
+            return move;
+        }
+
+        if (promotion != null) throw new SANParseException("Only pawns can promote");
+        int[] squares = new int[8];
+        int n = board.findAttackers(r2, c2, piece, squares);
+        move = null;
+        for (int i = 0; i < n; i++) {
+            int r = squares[i] / 8, c = squares[i] % 8;
+            if ((r1 >= 0 && r != r1) || (c1 >= 0 && c != c1)) continue;
+            Move candidate = new RegularMove(r, c, r2, c2, piece, board.getCastlingRightsClone(), board.getFiftyMoveClock());
+            if (!board.isLegal(candidate)) continue;
+            if (move != null) throw new SANParseException("Ambiguous move");
+            move = candidate;
+        }
+        if (move == null) throw new SANParseException("Not legal");
+        return move;
+    }
+
+    /**
+     * Returns the castling move to a given column if it is legal.
+     */
+    private static Move castling(Board board, int c) throws SANParseException {
+        Color color = board.getToMove();
+        int r = Board.getRow(0, color);
+        Piece king = Piece.of(Piece.Type.KING, color);
+        boolean allowed = c == 6 ? board.getCastlingRights().getKingside(color) : board.getCastlingRights().getQueenside(color);
+        if (!allowed || board.getPiece(r, 4) != king) throw new SANParseException("Not legal");
+        // the squares between king and rook must be empty
+        for (int col = c == 6 ? 5 : 1; col < (c == 6 ? 7 : 4); col++) {
+            if (board.getPiece(r, col) != Piece.EMPTY) throw new SANParseException("Not legal");
+        }
+        // the king may not castle out of, through or into check
+        if (board.isCheck() || !board.isLegal(new RegularMove(r, 4, r, c == 6 ? 5 : 3, king,
+                board.getCastlingRightsClone(), board.getFiftyMoveClock())))
+            throw new SANParseException("Not legal");
+        Move move = new CastlingMove(c, king, board.getCastlingRightsClone(), board.getFiftyMoveClock());
+        if (!board.isLegal(move)) throw new SANParseException("Not legal");
+        return move;
+    }
+
+    private static boolean isCastling(CharSequence s, int end, int length) {
+        if (end != length) return false;
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            if (i % 2 == 1 ? ch != '-' : ch != 'O' && ch != '0') return false;
+        }
+        return true;
+    }
+
+    private static boolean isSuffix(char ch) {
+        return ch == '+' || ch == '#' || ch == '!' || ch == '?';
+    }
+
+    private static boolean isColumn(char ch) {
+        return ch >= 'a' && ch <= 'h';
+    }
+
+    private static boolean isRow(char ch) {
+        return ch >= '1' && ch <= '8';
+    }
+
+    private static Piece.Type pieceType(char ch) throws SANParseException {
+        try {
+            return Piece.Type.fromChar(ch);
+        } catch (ParseException e) {
+            throw new SANParseException(e.getMessage());
+        }
+    }
+
+    private static Piece.Type promotionType(char ch) throws SANParseException {
+        return promotionType(pieceType(ch));
+    }
+
+    private static Piece.Type promotionType(Piece.Type type) throws SANParseException {
+        if (type == Piece.Type.PAWN || type == Piece.Type.KING) throw new SANParseException("Can't promote to " + type);
+        return type;
+    }
+
+    public static class SANParseException extends ParseException {
+        public SANParseException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,11 +1,86 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Used for finding the best move in a position.
  */
 public class Search {
+    public static final int MAX_DEPTH = 64;
+    // Searches never go deeper than this many plies from the root.
+    private static final int MAX_PLY = 2 * MAX_DEPTH;
+    // Mates are scored MATE less the number of plies to the mate, so closer mates score higher.
+    private static final int MATE = 1000000;
+    private static final int INFINITY = MATE + 1;
+    // Scores beyond this are mates.
+    private static final int MATE_BOUND = MATE - MAX_PLY;
+    // Null moves are only tried with at least this much depth left.
+    private static final int NULL_MOVE_MIN_DEPTH = 3;
+    // Moves searched before late move reductions start.
+    private static final int LMR_FULL_DEPTH_MOVES = 3;
+    private static final int LMR_MIN_DEPTH = 3;
+    private static final int[][] LMR_TABLE = new int[64][64];
+    // Score of a position won according to the tablebase.
+    private static final int TABLEBASE_WIN = MATE - 1000;
+    // Larger than any distance to zeroing, to rank root moves by result first.
+    private static final int TABLEBASE_RANK = 100000;
+    // The stop flag and budgets are checked every this many nodes, a power of two.
+    private static final int CHECK_INTERVAL = 256;
+    // Initial half-width of the aspiration window around the previous iteration's score, in centipawns.
+    private static final int ASPIRATION_WINDOW = 50;
+    // The default transposition table has 2^18 entries, 4 MB.
+    private static final int TABLE_BITS = 18;
+
+    static {
+        for (int d = 1; d < 64; d++) {
+            for (int i = 1; i < 64; i++) {
+                LMR_TABLE[d][i] = (int) (0.5 + Math.log(d) * Math.log(i) / 2.0);
+            }
+        }
+    }
+
     private Board board;
     private Evaluation eval;
+    private boolean nullMovePruning;
+    private boolean lateMoveReductions;
+    private Tablebase tablebase;
+    private TranspositionTable table;
+    // Triangular principal variation table: row p holds the best line found from ply p on.
+    private final Move[][] pvTable;
+    private final int[] pvLength;
+    // The principal variation of the previous iteration, searched first while followPV is set.
+    private Move[] previousPV;
+    private boolean followPV;
+    // A move picker for each ply, and two killer moves for each ply.
+    private final MovePicker[] pickers;
+    private final int[][] killers;
+    private Consumer<Search> listener;
+    // The telemetry of the board during a search, or null.
+    private Telemetry telemetry;
+    // Depth of the current iteration. Extensions stop at twice this many plies from the root.
+    private int rootDepth;
+    // Set by another thread to end the search early.
+    private volatile boolean stopped;
+    // Time budget in milliseconds, 0 for no limit.
+    private long timeLimit;
+    // Node budget, 0 for no limit.
+    private long nodeLimit;
+    private long startTime;
+    // Set once the search has been stopped or has run out of budget.
+    private boolean aborted;
+    // Statistics of the last search.
+    private long nodes;
+    private long nullMoveCutoffs;
+    private long reductions;
+    private long reSearches;
+    private long extensions;
+    private long aspirationFailures;
+    private long tablebaseHits;
+    private long tableHits;
+    private int score;
+    private int completedDepth;
+    private List<Move> principalVariation;
 
     /**
      * Constructs a Search object from a given board.
@@ -15,53 +90,746 @@ public class Search {
     public Search(Board board) {
         this.board = board;
         eval = new Evaluation(board);
+        nullMovePruning = true;
+        lateMoveReductions = true;
+        table = new TranspositionTable(TABLE_BITS);
+        pvTable = new Move[MAX_PLY + 1][MAX_PLY + 1];
+        pvLength = new int[MAX_PLY + 1];
+        previousPV = new Move[0];
+        pickers = new MovePicker[MAX_PLY + 1];
+        for (int i = 0; i <= MAX_PLY; i++) pickers[i] = new MovePicker(board);
+        killers = new int[MAX_PLY + 1][2];
     }
 
-    private int negaMax(int depth) {
-        if (depth == 0) return eval.evaluate();
+    public void setNullMovePruning(boolean nullMovePruning) {
+        this.nullMovePruning = nullMovePruning;
+    }
+
+    public void setLateMoveReductions(boolean lateMoveReductions) {
+        this.lateMoveReductions = lateMoveReductions;
+    }
+
+    /**
+     * Sets the tablebase probed for positions with few pieces left, or null to disable probing.
+     *
+     * @param tablebase The tablebase.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Sets the transposition table, which may be shared with other searches.
+     *
+     * @param table The transposition table.
+     */
+    public void setTranspositionTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return table;
+    }
+
+    /**
+     * Sets a listener called after every completed iteration, which can read the depth,
+     * score, nodes and principal variation of the search so far.
+     *
+     * @param listener The listener, or null.
+     */
+    public void setListener(Consumer<Search> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Limits the time of a search. No iteration is started after half the time has passed,
+     * since it would most likely not finish in time, and a search still running when the
+     * time is up is aborted.
+     *
+     * @param millis The time limit in milliseconds, or 0 for no limit.
+     */
+    public void setTimeLimit(long millis) {
+        this.timeLimit = millis;
+    }
+
+    /**
+     * Limits the number of nodes of a search. Like the time limit, no iteration is
+     * started after half the nodes have been searched, and the search is aborted when
+     * all of them have been.
+     *
+     * @param nodes The node limit, or 0 for no limit.
+     */
+    public void setNodeLimit(long nodes) {
+        this.nodeLimit = nodes;
+    }
+
+    /**
+     * Stops the search from another thread. The flag is polled along with the budgets
+     * every 256 nodes, and the search then returns the best move found so far. Once
+     * stopped, a Search object stays stopped, so a search that may be stopped needs a
+     * Search object of its own.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns whether the last search was stopped or ran out of budget before finishing
+     * its last iteration.
+     *
+     * @return whether the last search was aborted.
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getNullMoveCutoffs() {
+        return nullMoveCutoffs;
+    }
+
+    public long getReductions() {
+        return reductions;
+    }
+
+    public long getReSearches() {
+        return reSearches;
+    }
+
+    public long getExtensions() {
+        return extensions;
+    }
+
+    public long getAspirationFailures() {
+        return aspirationFailures;
+    }
+
+    public long getTablebaseHits() {
+        return tablebaseHits;
+    }
+
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * Returns the score of the best move found by the last search,
+     * relative to the player to move.
+     *
+     * @return the score of the last search.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the principal variation of the best move of the last search, as far as it
+     * is known, starting with the best move.
+     *
+     * @return the principal variation.
+     */
+    public List<Move> getPrincipalVariation() {
+        return principalVariation;
+    }
+
+    /**
+     * Returns whether a score is a forced mate for either player.
+     *
+     * @param score The score.
+     * @return whether the score is a mate.
+     */
+    public static boolean isMate(int score) {
+        return Math.abs(score) > MATE_BOUND;
+    }
+
+    /**
+     * Returns the number of moves to the mate of a mate score.
+     *
+     * @param score The mate score.
+     * @return the number of moves, negative if the player to move gets mated.
+     */
+    public static int mateDistance(int score) {
+        return score > 0 ? (MATE - score + 1) / 2 : -(MATE + score) / 2;
+    }
+
+    /**
+     * Returns the depth of the last completed iteration of the last search.
+     *
+     * @return the completed depth.
+     */
+    public int getDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Returns a string summarizing the statistics of the last search.
+     *
+     * @return the statistics of the last search.
+     */
+    public String getStatistics() {
+        return "nodes " + nodes + " null-move cutoffs " + nullMoveCutoffs
+                + " reductions " + reductions + " re-searches " + reSearches + " extensions " + extensions
+                + " aspiration failures " + aspirationFailures + " tablebase hits " + tablebaseHits
+                + " table hits " + tableHits;
+    }
+
+    private int negaMax(int ply, int depth, int alpha, int beta, boolean allowNull) {
+        nodes++;
+        pvLength[ply] = 0;
+        if ((nodes & CHECK_INTERVAL - 1) == 0) checkLimits();
+        if (aborted) return 0;
+        if (depth <= 0 || ply >= MAX_PLY) return evaluate();
 
-        int max = -1000000;
-        List<Move> moves = board.getLegalMoves();
-        // check for stalemate
-        if (moves.size() == 0 && !board.isCheck()) return 0;
         // check for fifty-move rule
         if (board.getFiftyMoveClock() == 50) return 0;
         // check for three-fold repetition
         if (board.positionRepeated()) return 0;
+        // mate distance pruning: no line from here can beat a mate closer to the root
+        alpha = Math.max(alpha, -MATE + ply);
+        beta = Math.min(beta, MATE - ply - 1);
+        if (alpha >= beta) return alpha;
+        // the result may already be known; only probed after captures and pawn moves, since
+        // the positions in between take the same result from the table entries
+        if (tablebase != null && board.getFiftyMoveClock() == 0 && board.getPieceCount() <= tablebase.getMaxPieces()) {
+            Tablebase.Wdl wdl = tablebase.probeWdl(board);
+            if (wdl != Tablebase.Wdl.UNKNOWN) {
+                tablebaseHits++;
+                return wdlScore(wdl);
+            }
+        }
+
+        // a search of this position to at least the same depth may decide the score
+        long entry = table.probe(board.getHash());
+        if (entry != 0 && TranspositionTable.depth(entry) >= depth) {
+            int s = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && s >= beta)
+                    || (bound == TranspositionTable.UPPER && s <= alpha)) {
+                tableHits++;
+                return Math.max(alpha, Math.min(beta, s));
+            }
+        }
+
+        // the previous iteration's principal variation goes first, then the table's move
+        MovePicker picker = pickers[ply];
+        if (followPV && ply < previousPV.length)
+            picker.reset(previousPV[ply].encode(), TranspositionTable.move(entry), killers[ply][0], killers[ply][1]);
+        else picker.reset(TranspositionTable.move(entry), 0, killers[ply][0], killers[ply][1]);
+
+        boolean inCheck = board.isCheck();
+        // a forced reply to check is extended
+        boolean singleReply = inCheck && ply < 2 * rootDepth && picker.hasSingleMove();
+        // null move pruning, skipped in pawn endings where zugzwang is likely
+        if (nullMovePruning && allowNull && !inCheck && depth >= NULL_MOVE_MIN_DEPTH
+                && board.hasNonPawnMaterial(board.getToMove())) {
+            int r = depth > 6 ? 3 : 2;
+            board.makeNullMove();
+            boolean wasFollowingPV = followPV;
+            followPV = false;
+            int score = -negaMax(ply + 1, depth - 1 - r, -beta, -beta + 1, false);
+            followPV = wasFollowingPV;
+            board.unmakeMove();
+            // the scores of an aborted search are meaningless and must not be stored
+            if (aborted) return 0;
+            if (score >= beta) {
+                nullMoveCutoffs++;
+                return beta;
+            }
+        }
 
-        for (Move m : moves)  {
+        int originalAlpha = alpha;
+        Move bestMove = null;
+        int i = 0;
+        Move m;
+        while ((m = picker.next()) != null) {
+            // only the first move can continue the previous principal variation
+            if (i > 0 || ply >= previousPV.length || m.encode() != previousPV[ply].encode()) followPV = false;
+            boolean quiet = MovePicker.isQuiet(board, m);
             board.makeMove(m);
-            int score = -negaMax(depth - 1);
+            boolean givesCheck = board.isCheck();
+            // checks are extended, so forced lines aren't cut off at the horizon
+            int newDepth = depth - 1;
+            if ((givesCheck || singleReply) && ply < 2 * rootDepth) {
+                extensions++;
+                newDepth++;
+            }
+            int score;
+            int reduction = 0;
+            if (lateMoveReductions && quiet && !inCheck && i >= LMR_FULL_DEPTH_MOVES && depth >= LMR_MIN_DEPTH
+                    && !givesCheck)
+                reduction = Math.min(LMR_TABLE[Math.min(depth, 63)][Math.min(i, 63)], depth - 2);
+            if (reduction > 0) {
+                reductions++;
+                score = -negaMax(ply + 1, newDepth - reduction, -alpha - 1, -alpha, true);
+                // the reduced search failed high, so the move has to be verified at full depth
+                if (score > alpha) {
+                    reSearches++;
+                    score = -negaMax(ply + 1, newDepth, -beta, -alpha, true);
+                }
+            } else {
+                score = -negaMax(ply + 1, newDepth, -beta, -alpha, true);
+            }
             board.unmakeMove();
-            if(score > max) max = score;
+            if (aborted) return 0;
+            i++;
+            if (score >= beta) {
+                if (quiet) storeKiller(ply, m.encode());
+                table.store(board.getHash(), m.encode(), toTable(beta, ply), depth, TranspositionTable.LOWER);
+                return beta;
+            }
+            if (score > alpha) {
+                alpha = score;
+                bestMove = m;
+                updatePV(ply, m);
+            }
         }
+        // check for checkmate and stalemate
+        if (i == 0) return inCheck ? -MATE + ply : 0;
+
+        if (alpha > originalAlpha) table.store(board.getHash(), bestMove.encode(), toTable(alpha, ply), depth, TranspositionTable.EXACT);
+        else table.store(board.getHash(), 0, toTable(alpha, ply), depth, TranspositionTable.UPPER);
+        return alpha;
+    }
 
-        return max;
+    private void checkLimits() {
+        if (stopped || (nodeLimit > 0 && nodes >= nodeLimit)
+                || (timeLimit > 0 && System.currentTimeMillis() - startTime >= timeLimit))
+            aborted = true;
     }
 
     /**
-     * Returns the best move in the position using the NegaMax search algorithm.
+     * Makes the principal variation at a ply a move followed by the one at the next ply.
+     */
+    private void updatePV(int ply, Move m) {
+        pvTable[ply][0] = m;
+        System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, pvLength[ply + 1]);
+        pvLength[ply] = pvLength[ply + 1] + 1;
+    }
+
+    private static int wdlScore(Tablebase.Wdl wdl) {
+        switch (wdl) {
+            case WIN:
+                return TABLEBASE_WIN;
+            case LOSS:
+                return -TABLEBASE_WIN;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Picks a move straight from the tablebase if the distances to zeroing of all root moves
+     * are known. A win is played by the move that zeroes the fifty move clock soonest and a
+     * loss is dragged out for as long as possible, which keeps a win from running into the
+     * fifty move rule.
+     *
+     * @param moves The legal moves.
+     * @return the best move, or null if some distance is unknown.
+     */
+    private Move probeRoot(List<Move> moves) {
+        if (board.getPieceCount() > tablebase.getMaxPieces()) return null;
+        Move bestMove = null;
+        int bestRank = Integer.MIN_VALUE;
+        for (Move m : moves) {
+            board.makeMove(m);
+            int dtz;
+            if (board.getFiftyMoveClock() == 0) {
+                // a zeroing move starts the count afresh, so only its result matters
+                Tablebase.Wdl wdl = tablebase.probeWdl(board);
+                dtz = wdl == Tablebase.Wdl.UNKNOWN ? Tablebase.UNKNOWN : -dtzBeforeZeroing(wdl);
+            } else {
+                dtz = tablebase.probeDtz(board);
+                if (dtz != Tablebase.UNKNOWN) dtz = -dtz + Integer.signum(-dtz);
+            }
+            if (dtz == 2 && board.isCheck() && board.getLegalMoves().isEmpty()) dtz = 1;
+            board.unmakeMove();
+            if (dtz == Tablebase.UNKNOWN) return null;
+            tablebaseHits++;
+            // wins and losses the fifty move rule turns into draws rank between these and draws
+            int total = Math.abs(dtz) + board.getFiftyMoveClock();
+            int rank = dtz > 0 ? (total <= 100 ? 2 * TABLEBASE_RANK : TABLEBASE_RANK) - dtz
+                    : dtz < 0 ? (total <= 100 ? -2 * TABLEBASE_RANK : -TABLEBASE_RANK) - dtz : 0;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = m;
+            }
+        }
+        score = bestRank > TABLEBASE_RANK ? TABLEBASE_WIN : bestRank < -TABLEBASE_RANK ? -TABLEBASE_WIN : 0;
+        return bestMove;
+    }
+
+    /**
+     * Returns the distance to zeroing just before a zeroing move into a position with a given result.
+     */
+    private static int dtzBeforeZeroing(Tablebase.Wdl wdl) {
+        switch (wdl) {
+            case WIN:
+                return 1;
+            case CURSED_WIN:
+                return 101;
+            case BLESSED_LOSS:
+                return -101;
+            case LOSS:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private int evaluate() {
+        if (telemetry == null) return eval.evaluate();
+        long start = System.nanoTime();
+        int e = eval.evaluate();
+        telemetry.add(Telemetry.Phase.EVAL, start);
+        return e;
+    }
+
+    /**
+     * Converts a mate score from distance to the root to distance to the current position for
+     * the transposition table, since the position may be reached at a different ply later.
+     */
+    private static int toTable(int score, int ply) {
+        if (score > MATE_BOUND) return score + ply;
+        if (score < -MATE_BOUND) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > MATE_BOUND) return score - ply;
+        if (score < -MATE_BOUND) return score + ply;
+        return score;
+    }
+
+    /**
+     * Remembers a quiet move that caused a cutoff, to be tried early in other positions at the same ply.
+     */
+    private void storeKiller(int ply, int move) {
+        if (killers[ply][0] == move) return;
+        killers[ply][1] = killers[ply][0];
+        killers[ply][0] = move;
+    }
+
+    /**
+     * Sorts moves so that up to two given moves come first, followed by captures of valuable
+     * pieces by cheap pieces.
+     *
+     * @param moves     The moves to sort.
+     * @param first     The encoded move to put first, or 0.
+     * @param second    The encoded move to put second, or 0.
+     */
+    private void orderMoves(List<Move> moves, int first, int second) {
+        moves.sort((a, b) -> Integer.compare(orderScore(b, first, second), orderScore(a, first, second)));
+    }
+
+    private int orderScore(Move m, int first, int second) {
+        int encoded = m.encode();
+        if (first != 0 && encoded == first) return Integer.MAX_VALUE;
+        if (second != 0 && encoded == second) return Integer.MAX_VALUE - 1;
+        return MovePicker.captureScore(board, m);
+    }
+
+    /**
+     * Returns the best move in the position using iterative deepening of the NegaMax
+     * search algorithm with alpha-beta pruning. Every iteration after the first is
+     * searched with an aspiration window around the previous score, and the root moves
+     * are re-sorted by the size of their subtrees.
      *
      * @param depth the search depth.
      * @return the best move.
      */
     public Move findBestMove(int depth) {
+        List<RootMove> rootMoves = search(depth, 1);
+        return rootMoves == null ? null : rootMoves.get(0).move;
+    }
+
+    /**
+     * Returns the best few moves in the position, each with its score and principal variation.
+     * Each iteration searches the lines in turn, every line excluding the root moves of the
+     * lines before it, so all lines share the transposition table instead of being
+     * searched separately.
+     *
+     * @param depth the search depth.
+     * @param count the number of lines.
+     * @return the lines, best first. Fewer than count if there aren't enough legal moves.
+     */
+    public List<Line> findBestLines(int depth, int count) {
+        if (count < 1) throw new IllegalArgumentException("Need at least one line");
+        List<Line> lines = new ArrayList<>();
+        List<RootMove> rootMoves = search(depth, count);
+        if (rootMoves == null) return lines;
+        for (int i = 0; i < Math.min(count, rootMoves.size()); i++) {
+            RootMove rm = rootMoves.get(i);
+            lines.add(new Line(rm.move, rm.score, principalVariation(rm, completedDepth)));
+        }
+        return lines;
+    }
+
+    /**
+     * Searches the position, recorded as a run if the board has telemetry.
+     */
+    private List<RootMove> search(int depth, int lines) {
         if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1");
+        telemetry = board.getTelemetry();
+        List<RootMove> rootMoves;
+        if (telemetry == null) {
+            rootMoves = iterate(depth, lines);
+        } else {
+            telemetry.beginRun();
+            rootMoves = iterate(depth, lines);
+            telemetry.endRun("search", nodes);
+        }
+        if (Events.isRecorderStarted()) {
+            Events.TableUsage event = new Events.TableUsage();
+            if (event.shouldCommit()) {
+                event.entries = table.size();
+                event.permille = table.usage();
+                event.hits = tableHits;
+                event.nodes = nodes;
+                event.commit();
+            }
+        }
+        return rootMoves;
+    }
+
+    /**
+     * Searches the position with iterative deepening, finding the best moves for a number of lines.
+     *
+     * @return the root moves, best lines first, or null if the search was decided without searching.
+     */
+    private List<RootMove> iterate(int depth, int lines) {
+        nodes = 0;
+        nullMoveCutoffs = 0;
+        reductions = 0;
+        reSearches = 0;
+        extensions = 0;
+        aspirationFailures = 0;
+        tablebaseHits = 0;
+        tableHits = 0;
+        completedDepth = 0;
+        for (int[] k : killers) Arrays.fill(k, 0);
+        aborted = false;
+        startTime = System.currentTimeMillis();
 
-        Move bestMove = null;
-        int max = -1000000;
         List<Move> moves = board.getLegalMoves();
+        if (moves.size() == 0) {
+            score = board.isCheck() ? -MATE : 0;
+            principalVariation = new ArrayList<>();
+            return null;
+        }
+        if (tablebase != null) {
+            Move tablebaseMove = probeRoot(moves);
+            if (tablebaseMove != null) {
+                List<RootMove> rootMoves = new ArrayList<>();
+                rootMoves.add(new RootMove(tablebaseMove));
+                rootMoves.get(0).score = score;
+                principalVariation = List.of(tablebaseMove);
+                return rootMoves;
+            }
+        }
+        orderMoves(moves, TranspositionTable.move(table.probe(board.getHash())), 0);
+        List<RootMove> rootMoves = new ArrayList<>(moves.size());
+        for (Move m : moves) rootMoves.add(new RootMove(m));
+        lines = Math.min(lines, rootMoves.size());
+        // all that is known if the first iteration is aborted
+        score = 0;
+        principalVariation = List.of(rootMoves.get(0).move);
 
-        for (Move m : moves) {
-            board.makeMove(m);
-            int score = -negaMax(depth - 1);
+        for (int pv = 0; pv < lines; pv++) {
+            int s = searchRoot(rootMoves, pv, 1, -INFINITY, INFINITY);
+            if (aborted) return abortIteration(rootMoves, pv, s, -INFINITY, 1);
+            rootMoves.get(pv).score = s;
+        }
+        completedDepth = 1;
+        completeIteration(rootMoves);
+        for (int d = 2; d <= depth; d++) {
+            if (timeLimit > 0 && 2 * (System.currentTimeMillis() - startTime) >= timeLimit) break;
+            if (nodeLimit > 0 && 2 * nodes >= nodeLimit) break;
+            for (int pv = 0; pv < lines; pv++) {
+                int delta = ASPIRATION_WINDOW;
+                int previous = rootMoves.get(pv).score;
+                // mate scores change by far more than a window between iterations
+                int alpha = isMate(previous) ? -INFINITY : previous - delta;
+                int beta = isMate(previous) ? INFINITY : previous + delta;
+                int failures = 0;
+                while (true) {
+                    int s = searchRoot(rootMoves, pv, d, alpha, beta);
+                    if (aborted) return abortIteration(rootMoves, pv, s, alpha, d);
+                    // the failing side is widened once, then opened fully, as is a bound
+                    // that would reach into the mate scores
+                    if (s <= alpha && alpha > -INFINITY) {
+                        alpha = failures > 0 || alpha - delta <= -MATE_BOUND ? -INFINITY : alpha - delta;
+                    } else if (s >= beta && beta < INFINITY) {
+                        beta = failures > 0 || beta + delta >= MATE_BOUND ? INFINITY : beta + delta;
+                    } else {
+                        rootMoves.get(pv).score = s;
+                        break;
+                    }
+                    aspirationFailures++;
+                    failures++;
+                    delta *= 2;
+                }
+            }
+            // a later line may have scored above an earlier one
+            rootMoves.subList(0, lines).sort((a, b) -> Integer.compare(b.score, a.score));
+            completedDepth = d;
+            completeIteration(rootMoves);
+        }
+        return rootMoves;
+    }
+
+    /**
+     * Ends a search whose iteration was aborted. The iteration's scores are discarded, except
+     * that a move which beat the previous best of the first line before the abort is kept.
+     *
+     * @param line  The line being searched.
+     * @param s     The result of searching the line.
+     * @param alpha The lower bound of the window the line was searched with.
+     * @param depth The depth of the iteration.
+     * @return the root moves.
+     */
+    private List<RootMove> abortIteration(List<RootMove> rootMoves, int line, int s, int alpha, int depth) {
+        if (line == 0 && s > alpha) {
+            rootMoves.get(0).score = s;
+            score = s;
+            principalVariation = principalVariation(rootMoves.get(0), depth);
+        }
+        return rootMoves;
+    }
+
+    private void completeIteration(List<RootMove> rootMoves) {
+        score = rootMoves.get(0).score;
+        principalVariation = principalVariation(rootMoves.get(0), completedDepth);
+        if (Events.isRecorderStarted()) {
+            Events.SearchIteration event = new Events.SearchIteration();
+            if (event.shouldCommit()) {
+                event.depth = completedDepth;
+                event.score = score;
+                event.nodes = nodes;
+                event.millis = System.currentTimeMillis() - startTime;
+                event.commit();
+            }
+        }
+        if (listener != null) listener.accept(this);
+    }
+
+    /**
+     * Searches the root moves from a given index on to a given depth within a window.
+     * Afterwards the best of them is placed at that index and the rest are sorted by the
+     * number of nodes in their subtrees, which estimates how hard they are to refute.
+     *
+     * @param rootMoves The root moves, best move of the previous iteration first.
+     * @param from      The index of the first move to search.
+     * @param depth     The search depth.
+     * @param alpha     The lower bound of the window.
+     * @param beta      The upper bound of the window.
+     * @return the score of the best move, or a bound if it is outside the window.
+     */
+    private int searchRoot(List<RootMove> rootMoves, int from, int depth, int alpha, int beta) {
+        rootDepth = depth;
+        List<RootMove> searched = rootMoves.subList(from, rootMoves.size());
+        RootMove best = null;
+        previousPV = searched.get(0).pv;
+        for (RootMove rm : searched) {
+            long before = nodes;
+            followPV = rm == searched.get(0);
+            board.makeMove(rm.move);
+            int s = -negaMax(1, depth - 1, -beta, -alpha, true);
             board.unmakeMove();
-            if(score > max) {
-                max = score;
-                bestMove = m;
+            if (aborted) {
+                // the caller keeps a move that raised alpha before the abort, so it goes first
+                if (best != null) {
+                    searched.remove(best);
+                    searched.add(0, best);
+                }
+                return alpha;
+            }
+            rm.nodes = nodes - before;
+            if (s > alpha) {
+                alpha = s;
+                best = rm;
+                rm.pv = new Move[pvLength[1] + 1];
+                rm.pv[0] = rm.move;
+                System.arraycopy(pvTable[1], 0, rm.pv, 1, pvLength[1]);
+                if (s >= beta) break;
             }
         }
 
-        return bestMove;
+        RootMove first = best != null ? best : searched.get(0);
+        searched.sort((a, b) -> a == first ? -1 : b == first ? 1 : Long.compare(b.nodes, a.nodes));
+        return alpha;
+    }
+
+    /**
+     * Returns the principal variation of a root move. Where it was cut short by a cutoff
+     * from the transposition table, it is extended with the best moves stored in the table.
+     *
+     * @param rm    The root move.
+     * @param depth The maximum length of the variation.
+     * @return the variation, starting with the root move.
+     */
+    private List<Move> principalVariation(RootMove rm, int depth) {
+        List<Move> pv = new ArrayList<>(Arrays.asList(rm.pv));
+        for (Move m : pv) board.makeMove(m);
+        while (pv.size() < depth && !board.positionRepeated()) {
+            int encoded = TranspositionTable.move(table.probe(board.getHash()));
+            if (encoded == 0) break;
+            Move m;
+            try {
+                m = SANParser.decode(encoded, board);
+            } catch (SANParser.SANParseException e) {
+                break;
+            }
+            pv.add(m);
+            board.makeMove(m);
+        }
+        for (int i = 0; i < pv.size(); i++) board.unmakeMove();
+        return pv;
+    }
+
+    /**
+     * A move at the root of the search along with the size of its last searched subtree
+     * and, for moves leading a line, its score and principal variation.
+     */
+    private static class RootMove {
+        private final Move move;
+        private long nodes;
+        private int score;
+        private Move[] pv;
+
+        public RootMove(Move move) {
+            this.move = move;
+            pv = new Move[]{move};
+        }
+    }
+
+    /**
+     * A line found by the search: a root move, its score relative to the player to move,
+     * and the principal variation starting with the move.
+     */
+    public static class Line {
+        private final Move move;
+        private final int score;
+        private final List<Move> principalVariation;
+
+        public Line(Move move, int score, List<Move> principalVariation) {
+            this.move = move;
+            this.score = score;
+            this.principalVariation = principalVariation;
+        }
+
+        public Move getMove() {
+            return move;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public List<Move> getPrincipalVariation() {
+            return principalVariation;
+        }
     }
 }
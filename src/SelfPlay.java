@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays engine-vs-engine games in parallel without user interaction, writing each
+ * game in PGN format as soon as it finishes.
+ */
+public class SelfPlay {
+    private final int threads;
+    private final EngineConfig engine;
+    private final int randomPlies;
+    private final Game.Adjudication adjudication;
+    private final long seed;
+    private final AtomicInteger nextGame;
+    private final int[] results;
+
+    /**
+     * Constructs a SelfPlay.
+     *
+     * @param threads       The number of games played at the same time.
+     * @param engine        The settings of the engine playing both sides.
+     * @param randomPlies   The number of random moves that start every game.
+     * @param adjudication  When to end games early.
+     * @param seed          The seed of the random opening moves.
+     */
+    public SelfPlay(int threads, EngineConfig engine, int randomPlies, Game.Adjudication adjudication, long seed) {
+        if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+        this.threads = threads;
+        this.engine = engine;
+        this.randomPlies = randomPlies;
+        this.adjudication = adjudication;
+        this.seed = seed;
+        nextGame = new AtomicInteger();
+        results = new int[Game.Result.values().length];
+    }
+
+    /**
+     * Plays a number of games.
+     *
+     * @param games The number of games.
+     * @param out   Where the games are written.
+     * @throws IOException if writing fails.
+     */
+    public void run(int games, Writer out) throws IOException {
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                int n;
+                while ((n = nextGame.getAndIncrement()) < games) playGame(n, out);
+            }, "self-play-" + i);
+            workers[i].start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        out.flush();
+
+        double hours = (System.nanoTime() - start) / 3.6e12;
+        System.err.format("%d games (+%d =%d -%d), %.0f games per hour%n", games, results[Game.Result.WHITE_WINS.ordinal()],
+                results[Game.Result.DRAW.ordinal()], results[Game.Result.BLACK_WINS.ordinal()], games / hours);
+    }
+
+    private void playGame(int n, Writer out) {
+        Random random = new Random(seed + n);
+        Game game = randomOpening(random);
+        Search white = engine.newSearch(game.getBoard());
+        Search black = engine.newSearch(game.getBoard());
+        Game.Result result = game.play(white, engine.getDepth(), black, engine.getDepth(), adjudication);
+
+        StringBuilder pgn = game.toPGN(new StringBuilder(), "Self-play", String.valueOf(n + 1), engine.getName(), engine.getName());
+        try {
+            synchronized (out) {
+                results[result.ordinal()]++;
+                out.write(pgn.toString());
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Writing games failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a game with random legal moves, retrying if the game would already be over.
+     */
+    private Game randomOpening(Random random) {
+        while (true) {
+            Game game = new Game(new Board());
+            for (int i = 0; i < randomPlies; i++) {
+                List<Move> moves = game.getBoard().getLegalMoves();
+                if (moves.size() == 0) break;
+                game.playMove(moves.get(random.nextInt(moves.size())));
+            }
+            if (!game.getBoard().gameEnded()) return game;
+        }
+    }
+}
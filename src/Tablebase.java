@@ -0,0 +1,936 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Probes endgame tablebases stored locally in Syzygy format. Tables are found by the
+ * material signature of the position (eg. "KQvK") and memory-mapped on first use.
+ * Positions whose result follows from the material alone are resolved without a table.
+ *
+ * A table stores one value per placement of the pieces, up to symmetry. The placements
+ * are numbered group by group (see Table.setGroups) and the values are compressed by
+ * recursive pairing followed by canonical Huffman coding, in blocks that can be decoded
+ * on their own (see decompress). The tables leave out positions where a capture decides
+ * the result, so every probe first looks at the captures of the position.
+ */
+public class Tablebase {
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int WDL_MAGIC = 0x5d23e871;
+    private static final int DTZ_MAGIC = 0xa50c66d7;
+    private static final String WDL_SUFFIX = ".rtbw";
+    private static final String DTZ_SUFFIX = ".rtbz";
+    // Order of the pieces in a material signature.
+    private static final Piece.Type[] SIGNATURE_ORDER = {
+            Piece.Type.KING, Piece.Type.QUEEN, Piece.Type.ROOK, Piece.Type.BISHOP, Piece.Type.KNIGHT, Piece.Type.PAWN
+    };
+    private static final Wdl[] RESULTS = Wdl.values();
+
+    // Results as stored in the tables, for the player to move.
+    private static final int LOSS = -2;
+    private static final int BLESSED_LOSS = -1;
+    private static final int DRAW = 0;
+    private static final int CURSED_WIN = 1;
+    private static final int WIN = 2;
+
+    // States of a probe: the stored value was used, a table is missing, the value of the
+    // best capture or pawn move was used instead, or a DTZ table only holds the other side.
+    private static final int OK = 0;
+    private static final int FAIL = 1;
+    private static final int ZEROING_BEST_MOVE = 2;
+    private static final int CHANGE_STM = 3;
+
+    // Flags of the data of a table.
+    private static final int STM = 1;
+    private static final int MAPPED = 2;
+    private static final int WIN_PLIES = 4;
+    private static final int LOSS_PLIES = 8;
+    private static final int WIDE = 16;
+    private static final int SINGLE_VALUE = 128;
+    // Which DTZ value map holds each result, indexed by result + 2.
+    private static final int[] DTZ_MAP = {1, 3, 0, 2, 0};
+
+    // Tables of the placement numbering. Squares are numbered from a1 = 0 to h8 = 63 here.
+    // Squares below the a1-h8 diagonal, numbered 0 to 27.
+    private static final int[] MAP_B1H1H7 = new int[64];
+    // Squares of the a1-d1-d4 triangle, numbered 0 to 9 with the diagonal last.
+    private static final int[] MAP_A1D1D4 = new int[64];
+    // The 462 placements of two kings with the first in the a1-d1-d4 triangle.
+    private static final int[][] MAP_KK = new int[10][64];
+    // Number of ways to choose k of n squares, indexed by k and n.
+    private static final long[][] BINOMIAL = new long[6][64];
+    // Number of squares left for the other pawns of the leading group when a pawn is on a
+    // square. The leading pawn is the one with the highest value: nearest the edge, then
+    // on the lowest rank.
+    private static final int[] MAP_PAWNS = new int[64];
+    private static final int[][] LEAD_PAWN_INDEX = new int[6][64];
+    private static final int[][] LEAD_PAWNS_SIZE = new int[6][4];
+
+    static {
+        int code = 0;
+        for (int s = 0; s < 64; s++) {
+            if (offDiagonal(s) < 0) MAP_B1H1H7[s] = code++;
+        }
+
+        code = 0;
+        int[] diagonal = new int[4];
+        int n = 0;
+        for (int s = 0; s < 64; s++) {
+            if ((s & 7) > 3 || (s >> 3) > 3) continue;
+            if (offDiagonal(s) < 0) MAP_A1D1D4[s] = code++;
+            else if (offDiagonal(s) == 0) diagonal[n++] = s;
+        }
+        for (int s : diagonal) MAP_A1D1D4[s] = code++;
+
+        // both kings on the diagonal come last
+        int[][] bothOnDiagonal = new int[64][];
+        n = 0;
+        code = 0;
+        for (int i = 0; i < 10; i++) {
+            for (int s1 = 0; s1 < 64; s1++) {
+                if ((s1 & 7) > 3 || (s1 >> 3) > 3 || MAP_A1D1D4[s1] != i || i == 0 && s1 != 1) continue;
+                for (int s2 = 0; s2 < 64; s2++) {
+                    if (Math.abs((s1 >> 3) - (s2 >> 3)) <= 1 && Math.abs((s1 & 7) - (s2 & 7)) <= 1) continue;
+                    if (offDiagonal(s1) == 0 && offDiagonal(s2) > 0) continue;
+                    if (offDiagonal(s1) == 0 && offDiagonal(s2) == 0) bothOnDiagonal[n++] = new int[]{i, s2};
+                    else MAP_KK[i][s2] = code++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) MAP_KK[bothOnDiagonal[i][0]][bothOnDiagonal[i][1]] = code++;
+
+        BINOMIAL[0][0] = 1;
+        for (int s = 1; s < 64; s++) {
+            for (int k = 0; k < 6 && k <= s; k++) {
+                BINOMIAL[k][s] = (k > 0 ? BINOMIAL[k - 1][s - 1] : 0) + (k < s ? BINOMIAL[k][s - 1] : 0);
+            }
+        }
+
+        int available = 47;
+        for (int count = 1; count <= 5; count++) {
+            for (int f = 0; f < 4; f++) {
+                int index = 0;
+                for (int r = 1; r <= 6; r++) {
+                    int s = 8 * r + f;
+                    if (count == 1) {
+                        MAP_PAWNS[s] = available--;
+                        MAP_PAWNS[s ^ 7] = available--;
+                    }
+                    LEAD_PAWN_INDEX[count][s] = index;
+                    index += (int) BINOMIAL[count - 1][MAP_PAWNS[s]];
+                }
+                LEAD_PAWNS_SIZE[count][f] = index;
+            }
+        }
+    }
+
+    private final Map<String, Table> wdlTables;
+    private final Map<String, Table> dtzTables;
+    private int maxPieces;
+
+    /**
+     * Constructs a Tablebase without any table files, which only resolves material draws.
+     */
+    public Tablebase() {
+        wdlTables = new HashMap<>();
+        dtzTables = new HashMap<>();
+        maxPieces = 3;
+    }
+
+    /**
+     * Constructs a Tablebase from the table files in a given directory.
+     *
+     * @param directory The directory containing .rtbw and .rtbz files.
+     * @throws IOException if the directory can't be read.
+     */
+    public Tablebase(Path directory) throws IOException {
+        this();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{rtbw,rtbz}")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String signature = name.substring(0, name.length() - WDL_SUFFIX.length());
+                if (!signature.matches("K[QRBNP]*vK[QRBNP]*")) continue;
+                if (name.endsWith(WDL_SUFFIX)) wdlTables.put(signature, new Table(file, signature, false));
+                else if (name.endsWith(DTZ_SUFFIX)) dtzTables.put(signature, new Table(file, signature, true));
+                maxPieces = Math.max(maxPieces, signature.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the largest number of pieces, kings included, of the tables found. Positions
+     * with more pieces are never probed.
+     *
+     * @return the maximum number of pieces.
+     */
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Probes the win/draw/loss result of the position for the player to move.
+     *
+     * @param board The board.
+     * @return the result, or Wdl.UNKNOWN if it isn't available.
+     */
+    public Wdl probeWdl(Board board) {
+        if (!probeable(board)) return Wdl.UNKNOWN;
+        Probe probe = new Probe();
+        int wdl = search(board, false, probe);
+        return probe.state == FAIL ? Wdl.UNKNOWN : RESULTS[wdl + 2];
+    }
+
+    /**
+     * Probes the distance to the next zeroing move (capture or pawn move) under the
+     * fifty move rule, positive if the player to move wins and negative if they lose.
+     * Cursed wins and blessed losses are 100 plies further away than the zeroing move.
+     *
+     * @param board The board.
+     * @return the distance in plies, 0 for draws, or UNKNOWN if it isn't available.
+     */
+    public int probeDtz(Board board) {
+        if (!probeable(board)) return UNKNOWN;
+        Probe probe = new Probe();
+        int dtz = dtz(board, probe);
+        return probe.state == FAIL ? UNKNOWN : dtz;
+    }
+
+    /**
+     * Returns whether the tables may hold the position: it has few enough pieces and no
+     * castling rights.
+     */
+    private boolean probeable(Board board) {
+        if (board.getPieceCount() > maxPieces) return false;
+        Board.CastlingRights rights = board.getCastlingRights();
+        for (Color c : Color.values()) {
+            if (rights.getKingside(c) || rights.getQueenside(c)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the result of the position from its captures (and pawn moves if asked to) and
+     * the table. Sets the state of the probe to ZEROING_BEST_MOVE if one of these moves is
+     * at least as good as the stored value, which is then not to be trusted.
+     */
+    private int search(Board board, boolean pawnMoves, Probe probe) {
+        int best = LOSS;
+        int value;
+        List<Move> moves = board.getLegalMoves();
+        int searched = 0;
+        for (Move m : moves) {
+            if (!isCapture(board, m) && (!pawnMoves || m.getPiece().getType() != Piece.Type.PAWN)) continue;
+            searched++;
+            board.makeMove(m);
+            value = -search(board, false, probe);
+            board.unmakeMove();
+            if (probe.state == FAIL) return DRAW;
+            if (value > best) {
+                best = value;
+                if (value >= WIN) {
+                    probe.state = ZEROING_BEST_MOVE;
+                    return value;
+                }
+            }
+        }
+
+        // when every move has been searched the stored value may be wrong, eg. for en passant
+        boolean allSearched = searched > 0 && searched == moves.size();
+        if (allSearched) value = best;
+        else {
+            value = probeTable(board, false, DRAW, probe);
+            if (probe.state == FAIL) return DRAW;
+        }
+        if (best >= value) {
+            probe.state = best > DRAW || allSearched ? ZEROING_BEST_MOVE : OK;
+            return best;
+        }
+        probe.state = OK;
+        return value;
+    }
+
+    private int dtz(Board board, Probe probe) {
+        probe.state = OK;
+        int wdl = search(board, true, probe);
+        if (probe.state == FAIL || wdl == DRAW) return 0;
+        if (probe.state == ZEROING_BEST_MOVE) return dtzBeforeZeroing(wdl);
+
+        int dtz = probeTable(board, true, wdl, probe);
+        if (probe.state == FAIL) return 0;
+        if (probe.state != CHANGE_STM)
+            return (dtz + (wdl == BLESSED_LOSS || wdl == CURSED_WIN ? 100 : 0)) * Integer.signum(wdl);
+
+        // the table holds the other side to move, so look one ply ahead for the best move
+        int min = 0xFFFF;
+        for (Move m : board.getLegalMoves()) {
+            boolean zeroing = isCapture(board, m) || m.getPiece().getType() == Piece.Type.PAWN;
+            board.makeMove(m);
+            // the distance of a zeroing move is counted from before it
+            dtz = zeroing ? -dtzBeforeZeroing(search(board, false, probe)) : -dtz(board, probe);
+            if (dtz == 1 && board.isCheck() && board.getLegalMoves().isEmpty()) min = 1;
+            if (!zeroing) dtz += Integer.signum(dtz);
+            if (dtz < min && Integer.signum(dtz) == Integer.signum(wdl)) min = dtz;
+            board.unmakeMove();
+            if (probe.state == FAIL) return 0;
+        }
+        // no legal moves: the player to move is mated
+        return min == 0xFFFF ? -1 : min;
+    }
+
+    private static int dtzBeforeZeroing(int wdl) {
+        switch (wdl) {
+            case WIN:
+                return 1;
+            case CURSED_WIN:
+                return 101;
+            case BLESSED_LOSS:
+                return -101;
+            case LOSS:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean isCapture(Board board, Move m) {
+        return m instanceof EnPassantMove || !(m instanceof CastlingMove)
+                && board.getPiece(m.getR2(), m.getC2()) != Piece.EMPTY;
+    }
+
+    /**
+     * Looks up the position in its table.
+     *
+     * @param board The board.
+     * @param dtz   Whether to look up the distance to zeroing instead of the result.
+     * @param wdl   The result of the position, when looking up the distance.
+     * @param probe The probe, whose state is set to FAIL if there is no table or to
+     *              CHANGE_STM if the DTZ table holds the other side to move.
+     * @return the result, or the distance in plies.
+     */
+    private int probeTable(Board board, boolean dtz, int wdl, Probe probe) {
+        int[][] counts = probe.counts;
+        for (int[] c : counts) Arrays.fill(c, 0);
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                Piece p = board.getPiece(r, c);
+                if (p != Piece.EMPTY) counts[p.getColor().ordinal()][p.getType().ordinal()]++;
+            }
+        }
+        if (materialDraw(counts)) return DRAW;
+
+        // a table lists the pieces of one side first, as white
+        Map<String, Table> tables = dtz ? dtzTables : wdlTables;
+        boolean blackFirst = false;
+        Table t = tables.get(signature(counts, Color.WHITE));
+        if (t == null) {
+            t = tables.get(signature(counts, Color.BLACK));
+            blackFirst = true;
+        }
+        if (t == null || !t.map()) {
+            probe.state = FAIL;
+            return 0;
+        }
+
+        long index = index(board, t, blackFirst, probe);
+        if (index < 0) {
+            probe.state = CHANGE_STM;
+            return 0;
+        }
+        int value = t.decompress(t.items[probe.side][probe.file], index);
+        return dtz ? t.mapDtz(probe.file, value, wdl) : value - 2;
+    }
+
+    /**
+     * Numbers the placement of the pieces in a table, and sets the side and file of the
+     * values of the probe to those holding the position.
+     *
+     * @param board      The board.
+     * @param t          The table.
+     * @param blackFirst Whether the table lists the black pieces first.
+     * @param probe      The probe.
+     * @return the index, or -1 if the table is a DTZ table that holds the other side to move.
+     */
+    private static long index(Board board, Table t, boolean blackFirst, Probe probe) {
+        // tables of equal material only hold white to move
+        boolean flip = blackFirst || t.symmetric && board.getToMove() == Color.BLACK;
+        int flipColor = flip ? 8 : 0;
+        int flipSquares = flip ? 56 : 0;
+        int stm = (flip ? 1 : 0) ^ board.getToMove().ordinal();
+        int[] squares = probe.squares;
+        int[] pieces = probe.pieces;
+        int size = 0;
+        int leadPawns = 0;
+        int file = 0;
+
+        // tables with pawns are split by the file of the leading pawn
+        int leadCode = -1;
+        if (t.hasPawns) {
+            leadCode = t.items[0][0].pieces[0] ^ flipColor;
+            for (int s = 0; s < 64; s++) {
+                if (code(board, s) == leadCode) squares[size++] = s ^ flipSquares;
+            }
+            leadPawns = size;
+            int lead = 0;
+            for (int i = 1; i < leadPawns; i++) {
+                if (MAP_PAWNS[squares[i]] > MAP_PAWNS[squares[lead]]) lead = i;
+            }
+            swap(squares, 0, lead);
+            file = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+        }
+        if (t.dtz && (t.items[0][file].flags & STM) != stm && !(t.symmetric && !t.hasPawns)) return -1;
+        for (int s = 0; s < 64; s++) {
+            int code = code(board, s);
+            if (code == 0 || code == leadCode) continue;
+            squares[size] = s ^ flipSquares;
+            pieces[size++] = code ^ flipColor;
+        }
+
+        probe.side = stm % t.items.length;
+        probe.file = file;
+        PairsData d = t.items[probe.side][file];
+        // put the pieces in the order of the table
+        for (int i = leadPawns; i < size - 1; i++) {
+            for (int j = i + 1; j < size; j++) {
+                if (d.pieces[i] == pieces[j]) {
+                    swap(pieces, i, j);
+                    swap(squares, i, j);
+                    break;
+                }
+            }
+        }
+        // mirror the board so that the leading piece is on files a to d
+        if ((squares[0] & 7) > 3) {
+            for (int i = 0; i < size; i++) squares[i] ^= 7;
+        }
+
+        long index;
+        if (t.hasPawns) {
+            index = LEAD_PAWN_INDEX[leadPawns][squares[0]];
+            for (int i = 2; i < leadPawns; i++) {
+                for (int j = i; j > 1 && MAP_PAWNS[squares[j]] < MAP_PAWNS[squares[j - 1]]; j--) swap(squares, j, j - 1);
+            }
+            for (int i = 1; i < leadPawns; i++) index += BINOMIAL[i][MAP_PAWNS[squares[i]]];
+        } else {
+            // without pawns, the leading piece is also moved to ranks 1 to 4 and below the diagonal
+            if ((squares[0] >> 3) > 3) {
+                for (int i = 0; i < size; i++) squares[i] ^= 56;
+            }
+            for (int i = 0; i < d.groupLen[0]; i++) {
+                if (offDiagonal(squares[i]) == 0) continue;
+                if (offDiagonal(squares[i]) > 0) {
+                    for (int j = i; j < size; j++) squares[j] = (squares[j] >> 3 | squares[j] << 3) & 63;
+                }
+                break;
+            }
+            index = t.hasUniquePieces ? uniqueIndex(squares) : MAP_KK[MAP_A1D1D4[squares[0]]][squares[1]];
+        }
+
+        // the other groups, each as a combination of the squares not taken by earlier groups
+        index *= d.groupIdx[0];
+        int start = d.groupLen[0];
+        boolean remainingPawns = t.hasPawns && t.pawnCount[1] > 0;
+        for (int g = 1; d.groupLen[g] != 0; g++) {
+            int end = start + d.groupLen[g];
+            Arrays.sort(squares, start, end);
+            long n = 0;
+            for (int i = start; i < end; i++) {
+                int adjust = 0;
+                for (int j = 0; j < start; j++) if (squares[i] > squares[j]) adjust++;
+                n += BINOMIAL[i - start + 1][squares[i] - adjust - (remainingPawns ? 8 : 0)];
+            }
+            remainingPawns = false;
+            index += n * d.groupIdx[g];
+            start = end;
+        }
+        return index;
+    }
+
+    /**
+     * Numbers the placements of the first three pieces, when one of them differs from
+     * all other pieces. The first piece is in the a1-d1-d4 triangle.
+     */
+    private static long uniqueIndex(int[] squares) {
+        int adjust1 = squares[1] > squares[0] ? 1 : 0;
+        int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+        if (offDiagonal(squares[0]) != 0)
+            return (MAP_A1D1D4[squares[0]] * 63L + squares[1] - adjust1) * 62 + squares[2] - adjust2;
+        if (offDiagonal(squares[1]) != 0)
+            return (6 * 63 + (squares[0] >> 3) * 28 + MAP_B1H1H7[squares[1]]) * 62L + squares[2] - adjust2;
+        if (offDiagonal(squares[2]) != 0)
+            return 6 * 63 * 62 + 4 * 28 * 62 + (squares[0] >> 3) * 7 * 28
+                    + ((squares[1] >> 3) - adjust1) * 28 + MAP_B1H1H7[squares[2]];
+        return 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] >> 3) * 7 * 6
+                + ((squares[1] >> 3) - adjust1) * 6 + (squares[2] >> 3) - adjust2;
+    }
+
+    /**
+     * Returns the code of the piece on a square as stored in the tables: 1 to 6 for white
+     * pawn to king, 9 to 14 for black, 0 for none.
+     *
+     * @param s The square, a1 = 0 to h8 = 63.
+     */
+    private static int code(Board board, int s) {
+        Piece p = board.getPiece(7 - (s >> 3), s & 7);
+        if (p == Piece.EMPTY) return 0;
+        return p.getType().ordinal() + 1 | (p.getColor() == Color.BLACK ? 8 : 0);
+    }
+
+    /**
+     * Returns how far a square is above the a1-h8 diagonal, negative if below it.
+     */
+    private static int offDiagonal(int s) {
+        return (s >> 3) - (s & 7);
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    /**
+     * Returns the material signature of the position with the pieces of a given player
+     * first, eg. "KRPvKR".
+     *
+     * @param board The board.
+     * @param first The player whose pieces are listed first.
+     * @return the material signature.
+     */
+    public static String materialSignature(Board board, Color first) {
+        int[][] counts = new int[2][Piece.Type.values().length];
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                Piece p = board.getPiece(r, c);
+                if (p.getType() != Piece.Type.EMPTY) counts[p.getColor().ordinal()][p.getType().ordinal()]++;
+            }
+        }
+        return signature(counts, first);
+    }
+
+    private static String signature(int[][] counts, Color first) {
+        StringBuilder sb = new StringBuilder(8);
+        for (Color side : new Color[]{ first, first.swap() }) {
+            if (side != first) sb.append('v');
+            for (Piece.Type t : SIGNATURE_ORDER) {
+                for (int i = 0; i < counts[side.ordinal()][t.ordinal()]; i++) sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns whether neither player can mate with the given material: a lone king
+     * against a king with at most one minor piece.
+     */
+    private static boolean materialDraw(int[][] counts) {
+        for (int side = 0; side < 2; side++) {
+            int[] own = counts[side];
+            int[] other = counts[1 - side];
+            int otherMaterial = 0;
+            for (Piece.Type t : SIGNATURE_ORDER) if (t != Piece.Type.KING) otherMaterial += other[t.ordinal()];
+            if (otherMaterial != 0) continue;
+            int minors = own[Piece.Type.KNIGHT.ordinal()] + own[Piece.Type.BISHOP.ordinal()];
+            int majors = own[Piece.Type.QUEEN.ordinal()] + own[Piece.Type.ROOK.ordinal()] + own[Piece.Type.PAWN.ordinal()];
+            return majors == 0 && minors <= 1;
+        }
+        return false;
+    }
+
+    /**
+     * Result of a position with perfect play. Cursed wins and blessed losses are
+     * wins and losses that the fifty move rule turns into draws.
+     */
+    public enum Wdl {
+        LOSS, BLESSED_LOSS, DRAW, CURSED_WIN, WIN, UNKNOWN
+    }
+
+    /**
+     * State of a single probe, with room for the pieces of the position.
+     */
+    private static class Probe {
+        private int state;
+        private int side;
+        private int file;
+        private final int[][] counts = new int[2][Piece.Type.values().length];
+        private final int[] squares = new int[64];
+        private final int[] pieces = new int[64];
+    }
+
+    /**
+     * The values of a table for one side to move and one file of the leading pawn, and
+     * how to find them in the file.
+     */
+    private static class PairsData {
+        private int flags;
+        private final int[] pieces;
+        // Number of pieces in each group, ending with 0, and the factor of each group in
+        // the index. The factor after the last group is the number of placements.
+        private final int[] groupLen;
+        private final long[] groupIdx;
+        private final int[] mapIdx = new int[4];
+        private int singleValue;
+        private int blockSize;
+        private long span;
+        private int sparseIndexSize;
+        private int blocks;
+        private int blockLengthSize;
+        private int minSymLen;
+        private long[] base64;
+        private int[] symLen;
+        // Offsets in the file.
+        private int lowestSym;
+        private int btree;
+        private int sparseIndex;
+        private int blockLength;
+        private int data;
+
+        public PairsData(int pieceCount) {
+            pieces = new int[pieceCount];
+            groupLen = new int[pieceCount + 1];
+            groupIdx = new long[pieceCount + 1];
+        }
+    }
+
+    /**
+     * A single table file, mapped into memory and read the first time it is needed.
+     */
+    private static class Table {
+        private final Path file;
+        private final boolean dtz;
+        private final int pieceCount;
+        private final boolean hasPawns;
+        private final boolean hasUniquePieces;
+        private final boolean symmetric;
+        // Pawns of the leading side, which has the fewest pawns if both have some, and of the other.
+        private final int[] pawnCount = new int[2];
+        // Indexed by side to move and file of the leading pawn.
+        private PairsData[][] items;
+        private MappedByteBuffer data;
+        private int map;
+        private volatile boolean ready;
+        private boolean unusable;
+
+        public Table(Path file, String signature, boolean dtz) {
+            this.file = file;
+            this.dtz = dtz;
+            String[] sides = signature.split("v");
+            pieceCount = signature.length() - 1;
+            symmetric = sides[0].equals(sides[1]);
+            boolean unique = false;
+            for (String side : sides) {
+                for (char p : "QRBNP".toCharArray()) {
+                    if (side.indexOf(p) >= 0 && side.indexOf(p) == side.lastIndexOf(p)) unique = true;
+                }
+            }
+            hasUniquePieces = unique;
+            int white = pawns(sides[0]);
+            int black = pawns(sides[1]);
+            hasPawns = white + black > 0;
+            boolean whiteLeads = black == 0 || white > 0 && black >= white;
+            pawnCount[0] = whiteLeads ? white : black;
+            pawnCount[1] = whiteLeads ? black : white;
+        }
+
+        private static int pawns(String side) {
+            return side.length() - side.replace("P", "").length();
+        }
+
+        /**
+         * Maps the file and reads how its values are laid out. A file that is missing or
+         * malformed is skipped from then on.
+         *
+         * @return whether the table can be probed.
+         */
+        private boolean map() {
+            if (ready) return true;
+            synchronized (this) {
+                if (ready) return true;
+                if (unusable) return false;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    if (channel.size() % 64 == 16 && channel.size() <= Integer.MAX_VALUE) {
+                        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        data.order(ByteOrder.LITTLE_ENDIAN);
+                        ready = data.getInt(0) == (dtz ? DTZ_MAGIC : WDL_MAGIC) && read();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    ready = false;
+                }
+                if (!ready) {
+                    unusable = true;
+                    data = null;
+                }
+                return ready;
+            }
+        }
+
+        private boolean read() {
+            int p = 4;
+            int flags = data.get(p++);
+            if (((flags & 2) != 0) != hasPawns) return false;
+            int sides = dtz || symmetric ? 1 : 2;
+            int files = hasPawns ? 4 : 1;
+            boolean bothPawns = hasPawns && pawnCount[1] > 0;
+            items = new PairsData[sides][files];
+
+            for (int f = 0; f < files; f++) {
+                for (int i = 0; i < sides; i++) items[i][f] = new PairsData(pieceCount);
+                int first = data.get(p) & 0xFF;
+                int second = bothPawns ? data.get(p + 1) & 0xFF : 0xFF;
+                int[][] order = {{first & 0xF, second & 0xF}, {first >> 4, second >> 4}};
+                p += bothPawns ? 2 : 1;
+                for (int k = 0; k < pieceCount; k++, p++) {
+                    int b = data.get(p) & 0xFF;
+                    for (int i = 0; i < sides; i++) items[i][f].pieces[k] = i == 0 ? b & 0xF : b >> 4;
+                }
+                for (int i = 0; i < sides; i++) setGroups(items[i][f], order[i], f);
+            }
+            p += p & 1;
+
+            for (int f = 0; f < files; f++) {
+                for (int i = 0; i < sides; i++) p = setSizes(items[i][f], p);
+            }
+            if (dtz) p = setDtzMap(p, files);
+            for (int f = 0; f < files; f++) {
+                for (int i = 0; i < sides; i++) {
+                    items[i][f].sparseIndex = p;
+                    p += items[i][f].sparseIndexSize * 6;
+                }
+            }
+            for (int f = 0; f < files; f++) {
+                for (int i = 0; i < sides; i++) {
+                    items[i][f].blockLength = p;
+                    p += items[i][f].blockLengthSize * 2;
+                }
+            }
+            long end = p;
+            for (int f = 0; f < files; f++) {
+                for (int i = 0; i < sides; i++) {
+                    end = end + 63 & ~63;
+                    if (end > data.limit()) return false;
+                    items[i][f].data = (int) end;
+                    end += (long) items[i][f].blocks * items[i][f].blockSize;
+                }
+            }
+            return end <= data.limit();
+        }
+
+        /**
+         * Splits the pieces into groups: the leading pawns, or the first two or three
+         * pieces, then the other pawns and runs of equal pieces. The placements of a group
+         * are numbered together and the order gives the factor of each group in the index.
+         */
+        private void setGroups(PairsData d, int[] order, int f) {
+            int n = 0;
+            int firstLen = hasPawns ? 0 : hasUniquePieces ? 3 : 2;
+            d.groupLen[n] = 1;
+            for (int i = 1; i < pieceCount; i++) {
+                if (--firstLen > 0 || d.pieces[i] == d.pieces[i - 1]) d.groupLen[n]++;
+                else d.groupLen[++n] = 1;
+            }
+            d.groupLen[++n] = 0;
+
+            boolean bothPawns = hasPawns && pawnCount[1] > 0;
+            int next = bothPawns ? 2 : 1;
+            int freeSquares = 64 - d.groupLen[0] - (bothPawns ? d.groupLen[1] : 0);
+            long index = 1;
+            for (int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+                if (k == order[0]) {
+                    d.groupIdx[0] = index;
+                    index *= hasPawns ? LEAD_PAWNS_SIZE[d.groupLen[0]][f] : hasUniquePieces ? 31332 : 462;
+                } else if (k == order[1]) {
+                    d.groupIdx[1] = index;
+                    index *= BINOMIAL[d.groupLen[1]][48 - d.groupLen[0]];
+                } else {
+                    d.groupIdx[next] = index;
+                    index *= BINOMIAL[d.groupLen[next]][freeSquares];
+                    freeSquares -= d.groupLen[next++];
+                }
+            }
+            d.groupIdx[n] = index;
+        }
+
+        /**
+         * Reads the sizes and the Huffman code of the compressed values.
+         *
+         * @return the offset after them.
+         */
+        private int setSizes(PairsData d, int p) {
+            d.flags = data.get(p++) & 0xFF;
+            if ((d.flags & SINGLE_VALUE) != 0) {
+                d.singleValue = data.get(p++) & 0xFF;
+                return p;
+            }
+
+            int g = 0;
+            while (d.groupLen[g] != 0) g++;
+            long size = d.groupIdx[g];
+            d.blockSize = 1 << data.get(p++);
+            d.span = 1L << data.get(p++);
+            d.sparseIndexSize = (int) ((size + d.span - 1) / d.span);
+            int padding = data.get(p++) & 0xFF;
+            d.blocks = data.getInt(p);
+            p += 4;
+            d.blockLengthSize = d.blocks + padding;
+            int maxSymLen = data.get(p++) & 0xFF;
+            d.minSymLen = data.get(p++) & 0xFF;
+            d.lowestSym = p;
+
+            // The longest codes have the lowest values. base64[l] is the lowest code of
+            // length minSymLen + l, left-aligned in 64 bits.
+            int lengths = maxSymLen - d.minSymLen + 1;
+            d.base64 = new long[lengths];
+            for (int i = lengths - 2; i >= 0; i--) {
+                d.base64[i] = (d.base64[i + 1] + lowestSym(d, i) - lowestSym(d, i + 1)) / 2;
+            }
+            for (int i = 0; i < lengths; i++) d.base64[i] <<= 64 - i - d.minSymLen;
+            p += 2 * lengths;
+
+            // each symbol is a value or a pair of symbols; symLen is the number of values less one
+            int symbols = data.getShort(p) & 0xFFFF;
+            p += 2;
+            d.btree = p;
+            d.symLen = new int[symbols];
+            boolean[] visited = new boolean[symbols];
+            for (int s = 0; s < symbols; s++) {
+                if (!visited[s]) d.symLen[s] = setSymLen(d, s, visited);
+            }
+            return p + 3 * symbols + (symbols & 1);
+        }
+
+        private int setSymLen(PairsData d, int s, boolean[] visited) {
+            visited[s] = true;
+            int right = right(d, s);
+            if (right == 0xFFF) return 0;
+            int left = left(d, s);
+            if (!visited[left]) d.symLen[left] = setSymLen(d, left, visited);
+            if (!visited[right]) d.symLen[right] = setSymLen(d, right, visited);
+            return d.symLen[left] + d.symLen[right] + 1;
+        }
+
+        /**
+         * Reads the maps from the values stored in a DTZ table to distances, one for each
+         * result of the position.
+         *
+         * @return the offset after them.
+         */
+        private int setDtzMap(int p, int files) {
+            map = p;
+            for (int f = 0; f < files; f++) {
+                PairsData d = items[0][f];
+                if ((d.flags & MAPPED) == 0) continue;
+                if ((d.flags & WIDE) != 0) {
+                    p += p & 1;
+                    for (int i = 0; i < 4; i++) {
+                        d.mapIdx[i] = (p - map) / 2 + 1;
+                        p += 2 * (data.getShort(p) & 0xFFFF) + 2;
+                    }
+                } else {
+                    for (int i = 0; i < 4; i++) {
+                        d.mapIdx[i] = p - map + 1;
+                        p += (data.get(p) & 0xFF) + 1;
+                    }
+                }
+            }
+            return p + (p & 1);
+        }
+
+        private int mapDtz(int f, int value, int wdl) {
+            PairsData d = items[0][f];
+            if ((d.flags & MAPPED) != 0) {
+                int i = d.mapIdx[DTZ_MAP[wdl + 2]] + value;
+                value = (d.flags & WIDE) != 0 ? data.getShort(map + 2 * i) & 0xFFFF : data.get(map + i) & 0xFF;
+            }
+            // the table may count moves rather than plies
+            if (wdl == WIN && (d.flags & WIN_PLIES) == 0 || wdl == LOSS && (d.flags & LOSS_PLIES) == 0
+                    || wdl == CURSED_WIN || wdl == BLESSED_LOSS) value *= 2;
+            return value + 1;
+        }
+
+        /**
+         * Returns the value at an index of a table.
+         */
+        private int decompress(PairsData d, long index) {
+            if ((d.flags & SINGLE_VALUE) != 0) return d.singleValue;
+
+            // The sparse index gives the block and offset of the value at k * span + span / 2
+            // for every k. Walk from there to the block holding the value.
+            int k = (int) (index / d.span);
+            int block = data.getInt(d.sparseIndex + 6 * k);
+            int offset = (data.getShort(d.sparseIndex + 6 * k + 4) & 0xFFFF) + (int) (index % d.span - d.span / 2);
+            while (offset < 0) offset += blockLength(d, --block) + 1;
+            while (offset > blockLength(d, block)) offset -= blockLength(d, block++) + 1;
+
+            // decode the symbols of the block until the one covering the offset
+            int p = d.data + block * d.blockSize;
+            long buffer = bigEndianLong(p);
+            p += 8;
+            int bits = 64;
+            int sym;
+            while (true) {
+                int len = 0;
+                while (Long.compareUnsigned(buffer, d.base64[len]) < 0) len++;
+                sym = (int) ((buffer - d.base64[len]) >>> 64 - len - d.minSymLen) + lowestSym(d, len);
+                if (offset < d.symLen[sym] + 1) break;
+                offset -= d.symLen[sym] + 1;
+                len += d.minSymLen;
+                buffer <<= len;
+                bits -= len;
+                if (bits <= 32) {
+                    bits += 32;
+                    buffer |= bigEndianInt(p) << 64 - bits;
+                    p += 4;
+                }
+            }
+
+            // then expand the symbol down to the value at the offset
+            while (d.symLen[sym] != 0) {
+                int left = left(d, sym);
+                if (offset < d.symLen[left] + 1) sym = left;
+                else {
+                    offset -= d.symLen[left] + 1;
+                    sym = right(d, sym);
+                }
+            }
+            return left(d, sym);
+        }
+
+        private int blockLength(PairsData d, int block) {
+            return data.getShort(d.blockLength + 2 * block) & 0xFFFF;
+        }
+
+        private int lowestSym(PairsData d, int i) {
+            return data.getShort(d.lowestSym + 2 * i) & 0xFFFF;
+        }
+
+        private int left(PairsData d, int s) {
+            int p = d.btree + 3 * s;
+            return (data.get(p + 1) & 0xF) << 8 | data.get(p) & 0xFF;
+        }
+
+        private int right(PairsData d, int s) {
+            int p = d.btree + 3 * s;
+            return (data.get(p + 2) & 0xFF) << 4 | (data.get(p + 1) & 0xFF) >> 4;
+        }
+
+        private long bigEndianLong(int p) {
+            return bigEndianInt(p) << 32 | bigEndianInt(p + 4);
+        }
+
+        /**
+         * Reads 32 bits, as 0 past the end of the file, where the last block may end.
+         */
+        private long bigEndianInt(int p) {
+            if (p + 4 > data.limit()) return 0;
+            return Integer.reverseBytes(data.getInt(p)) & 0xFFFFFFFFL;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Opt-in measurements of where the time and memory of searches and perft runs go. A board
+ * with a Telemetry object set times its move generation and legality checks, and a search
+ * on it times evaluation. Each run records its duration split by phase, the bytes its thread
+ * allocated, and its nodes. Garbage collections are recorded from JMX notifications while the
+ * object is open. Timing every call costs a little, so numbers are only comparable between
+ * runs with telemetry on. A Telemetry object must only be used by one thread.
+ */
+public class Telemetry implements AutoCloseable {
+    public enum Phase {
+        MOVEGEN, LEGALITY, EVAL
+    }
+
+    private final long[] phaseNanos;
+    private final long[] phaseCalls;
+    private final List<String> runs;
+    private final ThreadMXBean threads;
+    private final List<NotificationEmitter> emitters;
+    private final NotificationListener listener;
+    // Collections by collector name: count, total and longest duration in milliseconds.
+    private final Map<String, long[]> collections;
+    // State at the start of the current run.
+    private long runStart;
+    private long runAllocated;
+    private final long[] runPhaseNanos;
+    private final long[] runPhaseCalls;
+
+    /**
+     * Constructs a Telemetry object and starts listening for garbage collections.
+     */
+    public Telemetry() {
+        phaseNanos = new long[Phase.values().length];
+        phaseCalls = new long[Phase.values().length];
+        runPhaseNanos = new long[Phase.values().length];
+        runPhaseCalls = new long[Phase.values().length];
+        runs = new ArrayList<>();
+        threads = ManagementFactory.getThreadMXBean();
+        collections = new TreeMap<>();
+        listener = this::collected;
+        emitters = new ArrayList<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) continue;
+            NotificationEmitter emitter = (NotificationEmitter) gc;
+            emitter.addNotificationListener(listener, null, null);
+            emitters.add(emitter);
+        }
+    }
+
+    /**
+     * Adds the time since a given start to a phase.
+     *
+     * @param phase The phase.
+     * @param start The start, from System.nanoTime.
+     */
+    public void add(Phase phase, long start) {
+        phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+        phaseCalls[phase.ordinal()]++;
+    }
+
+    /**
+     * Starts a run on the current thread.
+     */
+    public void beginRun() {
+        System.arraycopy(phaseNanos, 0, runPhaseNanos, 0, phaseNanos.length);
+        System.arraycopy(phaseCalls, 0, runPhaseCalls, 0, phaseCalls.length);
+        runAllocated = allocatedBytes();
+        runStart = System.nanoTime();
+    }
+
+    /**
+     * Ends and records a run started on the current thread.
+     *
+     * @param name  What was run, eg. "search".
+     * @param nodes The number of nodes of the run.
+     */
+    public void endRun(String name, long nodes) {
+        long nanos = System.nanoTime() - runStart;
+        long allocated = allocatedBytes();
+        allocated = allocated < 0 || runAllocated < 0 ? -1 : allocated - runAllocated;
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"name\":\"").append(name).append("\",\"nodes\":").append(nodes)
+                .append(",\"ms\":").append(millis(nanos))
+                .append(",\"allocatedBytes\":").append(allocated)
+                .append(",\"bytesPerNode\":").append(allocated < 0 || nodes == 0 ? -1 : allocated / nodes)
+                .append(",\"phases\":{");
+        long other = nanos;
+        for (Phase p : Phase.values()) {
+            long phase = phaseNanos[p.ordinal()] - runPhaseNanos[p.ordinal()];
+            other -= phase;
+            sb.append('"').append(p.name().toLowerCase()).append("\":{\"ms\":").append(millis(phase))
+                    .append(",\"calls\":").append(phaseCalls[p.ordinal()] - runPhaseCalls[p.ordinal()]).append("},");
+        }
+        // what the phases don't cover: making moves, ordering, bookkeeping and timing itself
+        sb.append("\"other\":{\"ms\":").append(millis(other)).append("}}}");
+        runs.add(sb.toString());
+    }
+
+    private long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    /**
+     * Records a garbage collection. Called on a JMX thread.
+     */
+    private void collected(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long duration = info.getGcInfo().getDuration();
+        synchronized (collections) {
+            long[] stats = collections.computeIfAbsent(info.getGcName(), k -> new long[3]);
+            stats[0]++;
+            stats[1] += duration;
+            stats[2] = Math.max(stats[2], duration);
+        }
+    }
+
+    /**
+     * Returns the recorded runs and garbage collections as JSON. Durations of concurrent
+     * collectors, eg. "G1 Concurrent GC", are the length of a cycle rather than a pause.
+     *
+     * @return the JSON object.
+     */
+    public String toJSON() {
+        StringBuilder sb = new StringBuilder("{\"runs\":[");
+        sb.append(String.join(",", runs)).append("],\"gc\":{");
+        synchronized (collections) {
+            boolean first = true;
+            for (Map.Entry<String, long[]> e : collections.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                long[] stats = e.getValue();
+                sb.append('"').append(e.getKey()).append("\":{\"count\":").append(stats[0])
+                        .append(",\"totalMs\":").append(stats[1]).append(",\"maxMs\":").append(stats[2]).append('}');
+            }
+        }
+        return sb.append("}}").toString();
+    }
+
+    /**
+     * Stops listening for garbage collections.
+     */
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException ignored) { }
+        }
+        emitters.clear();
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/**
+ * A hash table of search results, indexed by the Zobrist hash of the position. An entry
+ * packs the best move (see Move.encode), score, depth and bound type into a single long,
+ * and is stored next to the hash XORed with that long. An entry torn by two threads
+ * writing at once then fails validation instead of being used, so a table can be shared
+ * between searches without locking.
+ */
+public class TranspositionTable {
+    // The score is exact, at least the stored score, or at most the stored score.
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+
+    private final long[] keys;
+    private final long[] entries;
+    private final int mask;
+
+    /**
+     * Constructs an empty TranspositionTable with a given number of entries of 16 bytes.
+     *
+     * @param bits The table has 2^bits entries.
+     */
+    public TranspositionTable(int bits) {
+        if (bits < 1 || bits > 30) throw new IllegalArgumentException("Table size out of range");
+        keys = new long[1 << bits];
+        entries = new long[1 << bits];
+        mask = (1 << bits) - 1;
+    }
+
+    /**
+     * Returns the entry of a position.
+     *
+     * @param hash The hash of the position.
+     * @return the entry, or 0 if there is none.
+     */
+    public long probe(long hash) {
+        int i = (int) hash & mask;
+        long entry = entries[i];
+        return (keys[i] ^ entry) == hash ? entry : 0;
+    }
+
+    /**
+     * Stores the result of searching a position, replacing whatever was stored in its slot.
+     *
+     * @param hash  The hash of the position.
+     * @param move  The encoded best move, or 0 if none is known.
+     * @param score The score.
+     * @param depth The depth searched.
+     * @param bound EXACT, LOWER or UPPER.
+     */
+    public void store(long hash, int move, int score, int depth, int bound) {
+        int i = (int) hash & mask;
+        long entry = (long) score << 32 | (long) (depth & 0xFF) << 24 | (long) bound << 16 | move & 0xFFFF;
+        entries[i] = entry;
+        keys[i] = hash ^ entry;
+    }
+
+    /**
+     * Forgets all entries.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(entries, 0);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Estimates how full the table is from a sample of its first entries.
+     *
+     * @return the permille of entries in use.
+     */
+    public int usage() {
+        int sample = Math.min(1000, entries.length);
+        int used = 0;
+        for (int i = 0; i < sample; i++) {
+            if (bound(entries[i]) != 0) used++;
+        }
+        return used * 1000 / sample;
+    }
+
+    public static int move(long entry) {
+        return (int) entry & 0xFFFF;
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> 24) & 0xFF;
+    }
+
+    public static int score(long entry) {
+        return (int) (entry >> 32);
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Random;
+
+/**
+ * Random keys used for Zobrist hashing of board positions.
+ */
+public class Zobrist {
+    // Fixed seed so hashes are reproducible between runs.
+    private static final long SEED = 0x5EED5EED5EEDL;
+
+    private static final long[][] PIECES = new long[12][64];
+    private static final long[] CASTLING = new long[4];
+    private static final long[] EN_PASSANT = new long[8];
+    private static final long SIDE;
+
+    static {
+        Random random = new Random(SEED);
+        for (long[] keys : PIECES) {
+            for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+        }
+        for (int i = 0; i < CASTLING.length; i++) CASTLING[i] = random.nextLong();
+        for (int i = 0; i < EN_PASSANT.length; i++) EN_PASSANT[i] = random.nextLong();
+        SIDE = random.nextLong();
+    }
+
+    /**
+     * Returns the key of a given piece on a given square.
+     *
+     * @param p The piece.
+     * @param r The row of the square.
+     * @param c The column of the square.
+     * @return the key, or 0 for an empty square.
+     */
+    public static long piece(Piece p, int r, int c) {
+        if (p.getType() == Piece.Type.EMPTY) return 0;
+        return PIECES[p.getType().ordinal() * 2 + p.getColor().ordinal()][r * 8 + c];
+    }
+
+    /**
+     * Returns the combined key of a set of castling rights.
+     *
+     * @param rights The castling rights.
+     * @return the key of the castling rights.
+     */
+    public static long castling(Board.CastlingRights rights) {
+        long key = 0;
+        if (rights.getKingside(Color.WHITE)) key ^= CASTLING[0];
+        if (rights.getQueenside(Color.WHITE)) key ^= CASTLING[1];
+        if (rights.getKingside(Color.BLACK)) key ^= CASTLING[2];
+        if (rights.getQueenside(Color.BLACK)) key ^= CASTLING[3];
+        return key;
+    }
+
+    /**
+     * Returns the key of an en passant target on a given column.
+     *
+     * @param c The column.
+     * @return the key of the en passant column.
+     */
+    public static long enPassant(int c) {
+        return EN_PASSANT[c];
+    }
+
+    /**
+     * Returns the key that is toggled whenever the player to move changes.
+     *
+     * @return the side key.
+     */
+    public static long side() {
+        return SIDE;
+    }
+}
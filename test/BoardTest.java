@@ -2,9 +2,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class BoardTest {
     private Board[] boards = new Board[5];
@@ -55,4 +59,172 @@ class BoardTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void repetition() {
+        Board b = boards[0];
+        String[] knightDance = { "g1f3", "g8f6", "f3g1", "f6g8", "g1f3", "g8f6", "f3g1", "f6g8" };
+        for (int i = 0; i < knightDance.length; i++) {
+            b.makeMove(findMove(b, knightDance[i]));
+            assertEquals(i >= 3, b.positionRepeated());
+            assertEquals(i == knightDance.length - 1, b.gameEnded());
+        }
+        // a pawn move makes every earlier position unreachable
+        b.makeMove(findMove(b, "e2e4"));
+        assertFalse(b.positionRepeated());
+        b.unmakeMove();
+        assertTrue(b.positionRepeated());
+    }
+
+    @Test
+    void toFEN() throws FENParser.FENParseException {
+        String[] fens = {
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                "8/8/8/2k5/2pP4/8/B7/4K3 b - d3 5 3"
+        };
+        Board reused = new Board();
+        StringBuilder sb = new StringBuilder();
+        for (String fen : fens) {
+            assertEquals(fen, FENParser.parse(fen).toFEN());
+            FENParser.parse(fen, reused);
+            sb.setLength(0);
+            assertEquals(fen, reused.toFEN(sb).toString());
+        }
+        assertEquals(fens[0], boards[0].toFEN());
+    }
+
+    @Test
+    void encodeDecode() {
+        ByteBuffer buffer = ByteBuffer.allocate(Board.ENCODED_SIZE * boards.length);
+        for (Board b : boards) b.encode(buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        Board decoded = new Board();
+        for (Board b : boards) {
+            decoded.decode(buffer);
+            assertEquals(b.toFEN(), decoded.toFEN());
+            assertEquals(b.getHash(), decoded.getHash());
+        }
+    }
+
+    @Test
+    void toSAN() {
+        assertEquals("e4", boards[0].toSAN(findMove(boards[0], "e2e4")));
+        assertEquals("Nf3", boards[0].toSAN(findMove(boards[0], "g1f3")));
+        assertEquals("dxc8=Q", boards[1].toSAN(findMove(boards[1], "d7c8q")));
+        assertEquals("O-O", boards[1].toSAN(findMove(boards[1], "KC")));
+        assertEquals("Rae1", boards[2].toSAN(findMove(boards[2], "a1e1")));
+        assertEquals("Rfe1", boards[2].toSAN(findMove(boards[2], "f1e1")));
+        assertEquals("Bxf7+", boards[2].toSAN(findMove(boards[2], "c4f7")));
+        assertEquals("cxd3", boards[3].toSAN(findMove(boards[3], "c4d3")));
+    }
+
+    @Test
+    void parseSAN() throws ParseException {
+        for (Board b : boards) {
+            String fen = b.toFEN();
+            for (Move m : b.getLegalMoves()) {
+                Move parsed = SANParser.parse(b.toSAN(m), b);
+                assertEquals(m.toString(), parsed.toString());
+                assertEquals(m.getClass(), parsed.getClass());
+                assertEquals(m.encode(), SANParser.decode(m.encode(), b).encode());
+            }
+            assertEquals(fen, b.toFEN());
+        }
+        assertEquals("e2e4", SANParser.parse("e2e4", boards[0]).toString());
+        assertEquals("d7c8n", SANParser.parse("dxc8N", boards[1]).toString());
+        assertThrows(SANParser.SANParseException.class, () -> SANParser.parse("Re1", boards[2]));
+        assertThrows(SANParser.SANParseException.class, () -> SANParser.parse("e5", boards[0]));
+        assertThrows(SANParser.SANParseException.class, () -> SANParser.parse("dxc8", boards[1]));
+    }
+
+    @Test
+    void pieceCount() {
+        for (Board b : boards) {
+            assertEquals(countPieces(b), b.getPieceCount());
+            for (Move m : b.getLegalMoves()) {
+                b.makeMove(m);
+                assertEquals(countPieces(b), b.getPieceCount(), m.toString());
+                b.unmakeMove();
+                assertEquals(countPieces(b), b.getPieceCount());
+            }
+        }
+    }
+
+    @Test
+    void tablebaseMaterialDraw() throws FENParser.FENParseException {
+        Tablebase tb = new Tablebase();
+        assertEquals(Tablebase.Wdl.DRAW, tb.probeWdl(FENParser.parse("8/8/3k4/8/8/2B5/8/4K3 w - - 0 1")));
+        assertEquals(0, tb.probeDtz(FENParser.parse("8/8/3k4/8/8/2N5/8/4K3 b - - 0 1")));
+        assertEquals(Tablebase.Wdl.UNKNOWN, tb.probeWdl(FENParser.parse("8/8/3k4/8/8/2R5/8/4K3 w - - 0 1")));
+    }
+
+    /**
+     * Probes KQvK and KRvK tables from the directory in SYZYGY_PATH, if set.
+     */
+    @Test
+    void tablebase() throws IOException, FENParser.FENParseException {
+        String path = System.getenv("SYZYGY_PATH");
+        assumeTrue(path != null, "SYZYGY_PATH not set");
+        Tablebase tb = new Tablebase(Paths.get(path));
+        assumeTrue(tb.getMaxPieces() >= 3);
+        String[][] positions = {
+                {"8/8/8/3k4/8/8/8/KR6 w - - 0 1", "WIN"},
+                {"8/8/8/3k4/8/8/8/KR6 b - - 0 1", "LOSS"},
+                {"8/8/8/8/8/2k5/1R6/7K b - - 0 1", "DRAW"},
+                {"8/8/8/8/8/2K5/1r6/7k w - - 0 1", "DRAW"},
+                {"8/8/8/8/8/8/8/K1k4Q b - - 0 1", "LOSS"},
+                {"k7/2Q5/1K6/8/8/8/8/8 b - - 0 1", "DRAW"},
+                {"8/8/8/8/8/8/8/K1k4q w - - 0 1", "LOSS"},
+        };
+        for (String[] p : positions) {
+            Board b = FENParser.parse(p[0]);
+            assertEquals(Tablebase.Wdl.valueOf(p[1]), tb.probeWdl(b), p[0]);
+            assertEquals(p[0], b.toFEN());
+        }
+        // mate in one, and mated
+        assertEquals(1, tb.probeDtz(FENParser.parse("k7/8/1K6/8/8/8/8/7R w - - 0 1")));
+        assertEquals(-1, tb.probeDtz(FENParser.parse("R6k/8/6K1/8/8/8/8/8 b - - 0 1")));
+        assertTrue(tb.probeDtz(FENParser.parse("8/8/8/3k4/8/8/8/KR6 b - - 0 1")) < 0);
+    }
+
+    /**
+     * The example hashes of the Polyglot book format specification.
+     */
+    @Test
+    void polyglotKey() {
+        assertEquals(0x463b96181691fc9cL, OpeningBook.key(new Board()));
+        String[][] games = {
+                {"e2e4", "823c9b50fd114196"},
+                {"e2e4 d7d5", "0756b94461c50fb0"},
+                {"e2e4 d7d5 e4e5", "662fafb965db29d4"},
+                {"e2e4 d7d5 e4e5 f7f5", "22a48b5a8e47ff78"},
+                {"e2e4 d7d5 e4e5 f7f5 e1e2", "652a607ca3f242c1"},
+                {"e2e4 d7d5 e4e5 f7f5 e1e2 e8f7", "00fdd303c946bdd9"},
+                {"a2a4 b7b5 h2h4 b5b4 c2c4", "3c8123ea7b067637"},
+                {"a2a4 b7b5 h2h4 b5b4 c2c4 b4c3 a1a3", "5c3f9b829b279560"},
+        };
+        for (String[] game : games) {
+            Board b = new Board();
+            for (String m : game[0].split(" ")) b.makeMove(findMove(b, m));
+            assertEquals(Long.parseUnsignedLong(game[1], 16), OpeningBook.key(b), game[0]);
+        }
+    }
+
+    private static int countPieces(Board b) {
+        int n = 0;
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                if (b.getPiece(r, c) != Piece.EMPTY) n++;
+            }
+        }
+        return n;
+    }
+
+    private static Move findMove(Board b, String move) {
+        return b.getLegalMoves().stream()
+                .filter(m -> m.toString().equals(move))
+                .findAny().orElseThrow(() -> new IllegalArgumentException("Not legal: " + move));
+    }
+}
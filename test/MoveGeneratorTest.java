@@ -37,6 +37,83 @@ class MoveGeneratorTest {
         }
     }
 
+    @Test
+    void pickMoves() {
+        for (MoveGenTest t : moveGenTests) {
+            Board b = t.getBoard();
+            List<Move> legal = b.getLegalMoves();
+            // the last legal move as hash move, a move from another position and the first moves as killers
+            int last = legal.isEmpty() ? 0 : legal.get(legal.size() - 1).encode();
+            int killer1 = legal.size() < 2 ? 0 : legal.get(0).encode();
+            int killer2 = legal.size() < 2 ? 0 : legal.get(1).encode();
+            MovePicker picker = new MovePicker(b);
+            picker.reset(last, 0x3F, killer1, killer2);
+
+            List<String> picked = new ArrayList<>();
+            Move m;
+            while ((m = picker.next()) != null) picked.add(m.toString());
+            if (!legal.isEmpty()) assertEquals(legal.get(legal.size() - 1).toString(), picked.get(0));
+            picked.sort(null);
+            List<String> expected = new ArrayList<>();
+            for (Move move : legal) expected.add(move.toString());
+            expected.sort(null);
+            assertEquals(expected, picked);
+
+            // counting the legal moves first mustn't change the moves picked afterwards
+            picker.reset(last, 0x3F, killer1, killer2);
+            assertEquals(legal.size() == 1, picker.hasSingleMove());
+            picked.clear();
+            while ((m = picker.next()) != null) picked.add(m.toString());
+            picked.sort(null);
+            assertEquals(expected, picked);
+        }
+    }
+
+    @Test
+    void singleMove() throws FENParser.FENParseException, SANParser.SANParseException {
+        // the king can only take the rook on b2
+        Board b = FENParser.parse("k7/8/8/8/8/8/1r6/K6r w - - 0 1");
+        MovePicker picker = new MovePicker(b);
+        picker.reset(0, 0, 0, 0);
+        assertTrue(picker.hasSingleMove());
+        assertEquals("a1b2", picker.next().toString());
+        assertNull(picker.next());
+        picker.reset(SANParser.parse("Kxb2", b).encode(), 0, 0, 0);
+        assertTrue(picker.hasSingleMove());
+        assertEquals("a1b2", picker.next().toString());
+        assertNull(picker.next());
+        b = new Board();
+        picker = new MovePicker(b);
+        picker.reset(0, 0, 0, 0);
+        assertFalse(picker.hasSingleMove());
+    }
+
+    @Test
+    void attackMap() {
+        int[] squares = new int[8];
+        Piece.Type[] types = {Piece.Type.KNIGHT, Piece.Type.BISHOP, Piece.Type.ROOK, Piece.Type.QUEEN, Piece.Type.KING};
+        for (MoveGenTest t : moveGenTests) {
+            Board b = t.getBoard();
+            AttackMap attacks = b.getAttackMap();
+            for (int r = 0; r < 8; r++) {
+                for (int c = 0; c < 8; c++) {
+                    for (Color color : Color.values()) {
+                        int expected = 0;
+                        for (Piece.Type type : types) expected += b.findAttackers(r, c, Piece.of(type, color), squares);
+                        // pawns attack from the row behind the square
+                        int pawnRow = r + (color == Color.WHITE ? 1 : -1);
+                        Piece pawn = Piece.of(Piece.Type.PAWN, color);
+                        if (pawnRow >= 0 && pawnRow <= 7) {
+                            if (c > 0 && b.getPiece(pawnRow, c - 1) == pawn) expected++;
+                            if (c < 7 && b.getPiece(pawnRow, c + 1) == pawn) expected++;
+                        }
+                        assertEquals(expected, attacks.attackers(r, c, color));
+                    }
+                }
+            }
+        }
+    }
+
     private static class MoveGenTest {
         private final int depth;
         private final long nodes;
@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchTest {
+    // Black mates in two with Rg1+ Kxg1 Rxf1#.
+    private static final String MATE_IN_TWO = "6k1/pp4p1/2p5/2bp4/8/P5Pb/1P3rrP/2BRRN1K b - - 0 1";
+
+    @Test
+    void mateScore() throws FENParser.FENParseException {
+        Board b = FENParser.parse(MATE_IN_TWO);
+        Search s = new Search(b);
+        assertEquals("g2g1", s.findBestMove(4).toString());
+        assertTrue(Search.isMate(s.getScore()));
+        assertEquals(2, Search.mateDistance(s.getScore()));
+
+        // the side to move gets mated in one after the first move
+        b.makeMove(findMove(b, "g2g1"));
+        s = new Search(b);
+        s.findBestMove(3);
+        assertTrue(Search.isMate(s.getScore()));
+        assertEquals(-1, Search.mateDistance(s.getScore()));
+    }
+
+    @Test
+    void extensions() throws FENParser.FENParseException {
+        // the mate takes three plies, which only fit into a depth of two because the
+        // check and the forced reply to it are extended
+        Board b = FENParser.parse(MATE_IN_TWO);
+        Search s = new Search(b);
+        assertEquals("g2g1", s.findBestMove(2).toString());
+        assertEquals(2, Search.mateDistance(s.getScore()));
+        assertTrue(s.getExtensions() > 0);
+        List<Move> pv = s.getPrincipalVariation();
+        assertEquals("g2g1", pv.get(0).toString());
+        assertEquals("h1g1", pv.get(1).toString());
+    }
+
+    @Test
+    void findMate() throws FENParser.FENParseException {
+        Board b = FENParser.parse(MATE_IN_TWO);
+        String fen = b.toFEN();
+        MateSearch ms = new MateSearch(b);
+        List<Move> line = ms.findMate(2);
+        assertEquals(MateSearch.Result.MATE, ms.getResult());
+        assertEquals(fen, b.toFEN());
+        assertEquals(3, line.size());
+        for (Move m : line) b.makeMove(m);
+        assertTrue(b.isCheck());
+        assertTrue(b.getLegalMoves().isEmpty());
+
+        // stalemate
+        ms = new MateSearch(FENParser.parse("k7/8/1Q6/8/8/8/8/7K b - - 0 1"));
+        assertNull(ms.findMate(2));
+        assertEquals(MateSearch.Result.NO_MATE, ms.getResult());
+
+        ms = new MateSearch(new Board());
+        assertNull(ms.findMate(2));
+        assertEquals(MateSearch.Result.NO_MATE, ms.getResult());
+
+        // a mate in three doesn't fit into a tree of twenty nodes
+        ms = new MateSearch(FENParser.parse("r1b1kb1r/pppp1ppp/5q2/4n3/3KP3/2N3PN/PPP4P/R1BQ1B1R b kq - 0 1"));
+        ms.setNodeLimit(20);
+        assertNull(ms.findMate(3));
+        assertEquals(MateSearch.Result.UNKNOWN, ms.getResult());
+    }
+
+    @Test
+    void bestLines() {
+        Board b = new Board();
+        List<Search.Line> lines = new Search(b).findBestLines(4, 3);
+        assertEquals(3, lines.size());
+        List<Move> legal = b.getLegalMoves();
+        for (int i = 0; i < lines.size(); i++) {
+            Move m = lines.get(i).getMove();
+            assertTrue(legal.stream().anyMatch(l -> l.encode() == m.encode()), m.toString());
+            assertEquals(m.encode(), lines.get(i).getPrincipalVariation().get(0).encode());
+            for (int j = 0; j < i; j++) {
+                assertNotEquals(lines.get(j).getMove().encode(), m.encode());
+                assertTrue(lines.get(j).getScore() >= lines.get(i).getScore());
+            }
+        }
+    }
+
+    @Test
+    void nodeLimit() throws FENParser.FENParseException {
+        Board b = FENParser.parse("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1");
+        Search s = new Search(b);
+        s.setNodeLimit(1000);
+        Move m = s.findBestMove(Search.MAX_DEPTH);
+        assertTrue(s.isAborted());
+        // the budget is checked every 256 nodes
+        assertTrue(s.getNodes() < 1000 + 256, String.valueOf(s.getNodes()));
+        assertTrue(b.getLegalMoves().stream().anyMatch(l -> l.encode() == m.encode()), String.valueOf(m));
+
+        s.setNodeLimit(0);
+        s.findBestMove(2);
+        assertFalse(s.isAborted());
+    }
+
+    @Test
+    void verifyPuzzles() {
+        PuzzleVerifier v = new PuzzleVerifier(1, 4, 0, 0, 100, false);
+        String backRank = "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1; ";
+        assertEquals(PuzzleVerifier.Verdict.Type.VALID, v.verify(backRank + "Rd8#").getType());
+        assertEquals(PuzzleVerifier.Verdict.Type.VALID, v.verify(MATE_IN_TWO + "; Rg1+ Kxg1 Rxf1#").getType());
+        assertEquals(PuzzleVerifier.Verdict.Type.WRONG, v.verify(backRank + "Rd7").getType());
+        // e4 is about as good
+        assertEquals(PuzzleVerifier.Verdict.Type.AMBIGUOUS,
+                v.verify("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1; d4").getType());
+        assertEquals(PuzzleVerifier.Verdict.Type.ILLEGAL, v.verify(backRank + "Rd9").getType());
+        PuzzleVerifier.Verdict illegalReply = v.verify(MATE_IN_TWO + "; Rg1+ Kh2");
+        assertEquals(PuzzleVerifier.Verdict.Type.ILLEGAL, illegalReply.getType());
+        assertEquals(1, illegalReply.getPly());
+        assertEquals(PuzzleVerifier.Verdict.Type.INVALID, v.verify(backRank.replace(";", "") + "Rd8#").getType());
+        assertEquals(PuzzleVerifier.Verdict.Type.INVALID, v.verify("not a fen; e4").getType());
+        // no king to check
+        assertEquals(PuzzleVerifier.Verdict.Type.INVALID, v.verify("8/8/8/8/8/8/8/R7 w - - 0 1; Ra2").getType());
+    }
+
+    @Test
+    void batchAnalysis() throws IOException {
+        String in = String.join("\n",
+                "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+                "8/8/8/8/8/8/8/R7 w - - 0 1",
+                "not a, \"fen\"",
+                "",
+                MATE_IN_TWO);
+        StringWriter out = new StringWriter();
+        assertEquals(2, new BatchAnalysis(2, 4, 0, false).run(new BufferedReader(new StringReader(in)), out));
+        String[] lines = out.toString().split("\n");
+        assertEquals("index,fen,move,score,depth,nodes,ms", lines[0]);
+        assertEquals(5, lines.length);
+        // the workers finish in any order
+        Map<String, String> results = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) results.put(lines[i].substring(0, lines[i].indexOf(',')), lines[i]);
+        assertTrue(results.get("0").startsWith("0,6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1,d1d8,"), results.get("0"));
+        assertEquals("1,8/8/8/8/8/8/8/R7 w - - 0 1,error,,,,", results.get("1"));
+        assertEquals("2,\"not a, \"\"fen\"\"\",error,,,,", results.get("2"));
+        assertTrue(results.get("3").startsWith("3," + MATE_IN_TWO + ",g2g1,"), results.get("3"));
+
+        out = new StringWriter();
+        new BatchAnalysis(1, 1, 0, true).run(new BufferedReader(new StringReader("not a \"fen\"")), out);
+        assertTrue(out.toString().startsWith("{\"index\":0,\"fen\":\"not a \\\"fen\\\"\",\"error\":"), out.toString());
+    }
+
+    private static Move findMove(Board b, String move) {
+        return b.getLegalMoves().stream()
+                .filter(m -> m.toString().equals(move))
+                .findAny().orElseThrow(() -> new IllegalArgumentException("Not legal: " + move));
+    }
+}